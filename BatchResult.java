@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchResult {
+    /*
+    @overview:  BatchResult è un tipo di dato astratto non modificabile che rappresenta
+                l'esito di un'operazione su un lotto di elementi (vedi SocialNetwork.addPosts,
+                likePosts e rmPosts): una lista [outcome_0, ..., outcome_n-1] in cui
+                outcome_i è l'esito dell'i-esimo elemento del lotto.
+                Gli errori sono riportati come valori e non come eccezioni, così un
+                elemento non valido non interrompe il resto del lotto.
+    */
+
+    /* esito di un singolo elemento */
+    public enum Outcome {
+        // operazione eseguita
+        OK,
+        // l'elemento (o uno dei suoi campi) è null
+        NULL,
+        // esiste già un post con lo stesso id, nella rete o prima nel lotto
+        DUPLICATE,
+        // nessun post con l'id indicato
+        NO_SUCH_POST,
+        // like dell'autore al proprio post
+        SELF_LIKE
+    }
+
+    /* variabili d'istanza (private) */
+    private final Outcome[] outcomes;
+    private final int failures;
+
+    /*
+    Funzione di astrazione
+    AF(x) = [x.outcomes[0], ..., x.outcomes[x.outcomes.length - 1]]
+
+    Invariante di rappresentazione
+    IR(x) = x.outcomes != null && ∀ i. x.outcomes[i] != null
+            && x.failures == #{i : x.outcomes[i] != Outcome.OK}
+    */
+
+    /*
+    @requires:  outcomes != null && ∀ i. outcomes[i] != null
+                && outcomes non viene più modificato dal chiamante
+    @effects:   Crea il risultato [outcomes[0], ..., outcomes[outcomes.length - 1]]
+    */
+    BatchResult(Outcome[] outcomes) {
+        this.outcomes = outcomes;
+        int n = 0;
+        for (Outcome o : outcomes) {
+            if (o != Outcome.OK)
+                n++;
+        }
+        this.failures = n;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di elementi del lotto
+    */
+    public int size() {
+        return this.outcomes.length;
+    }
+
+    /*
+    @requires:  0 <= i < size()
+    @throws:    Se i non è un indice valido solleva IndexOutOfBoundsException
+    @effects:   Ritorna outcome_i
+    */
+    public Outcome get(int i) throws IndexOutOfBoundsException {
+        return this.outcomes[i];
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna #{i : outcome_i != Outcome.OK}
+    */
+    public int failures() {
+        return this.failures;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna la lista ordinata [i : outcome_i != Outcome.OK]
+    */
+    public List<Integer> failed() {
+        List<Integer> res = new ArrayList<Integer>();
+        for (int i = 0; i < this.outcomes.length; i++) {
+            if (this.outcomes[i] != Outcome.OK)
+                res.add(i);
+        }
+        return res;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il risultato sotto forma di String
+    */
+    public String toString() {
+        return "(" + (this.outcomes.length - this.failures) + " ok, " + this.failures + " falliti: "
+                + failed() + ")";
+    }
+};
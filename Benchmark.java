@@ -0,0 +1,277 @@
+/* misura le prestazioni di Post e SocialNetwork (memoria occupata e tempi) */
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+class Benchmark {
+    /*
+        Il main esegue la misura indicata dal primo argomento:
+            footprint [n]   crea n post (default 1000000) con 0, 1, 2 o 5 like e
+                            stampa i byte di heap occupati in media da ogni post
+            scan [n]        confronta i tempi di guessFollowers/guessFollowing su una
+                            lista di n post con quelli di followers/following di PostColumns
+            batch [n]       confronta n chiamate ad addPost con una sola chiamata ad addPosts
+            snapshot [n]    confronta la costruzione di una rete da n post con il
+                            caricamento della stessa rete salvata con save. Il file
+                            contiene solo utenti, archi e post: load risparmia il calcolo
+                            del grafo ma ricostruisce l'indice delle parole e la
+                            classifica, quindi non è molto più veloce della costruzione
+            log [n]         misura il costo per modifica di n publish e likePost senza
+                            registro, con un registro ASYNC e con un registro GROUP
+                            (con 1 e con 16 thread)
+            print [n]       misura print su un Writer per reti di n/4, n/2 e n post,
+                            per verificare che il tempo cresca linearmente
+        Va eseguito ad esempio con java -Xmx2g Benchmark footprint
+    */
+    public static void main(String[] args) throws Exception {
+        String what = args.length > 0 ? args[0] : "footprint";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        if (what.equals("footprint")) {
+            footprint(n);
+        } else if (what.equals("scan")) {
+            scan(n);
+        } else if (what.equals("batch")) {
+            batch(n);
+        } else if (what.equals("snapshot")) {
+            snapshot(n);
+        } else if (what.equals("log")) {
+            log(n);
+        } else if (what.equals("print")) {
+            print(n);
+        } else {
+            System.out.println("Misura sconosciuta: " + what);
+        }
+    }
+
+    /* heap occupato dopo aver invocato più volte il garbage collector */
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    /*
+        Autori, testi e utenti che mettono like sono creati prima della misura e
+        condivisi tra i post, così da contare solo la struttura di Post (id,
+        timestamp, insieme dei like) e non le stringhe
+    */
+    private static void footprint(int n) throws Exception {
+        Random rng = new Random(42);
+        String[] users = new String[1000];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = "Utente" + i;
+        }
+        String text = "Testo di prova";
+        // distribuzione dei like: la maggior parte dei post ne ha meno di 3
+        int[] likesPerPost = { 0, 0, 0, 1, 1, 2, 5 };
+
+        List<Post> ps = new ArrayList<Post>(n);
+        long before = usedHeap();
+        for (int i = 0; i < n; i++) {
+            Post p = new Post(users[rng.nextInt(users.length)], text, new Date(rng.nextLong(1L << 40)));
+            int k = likesPerPost[rng.nextInt(likesPerPost.length)];
+            while (p.likeCount() < k) {
+                String liker = users[rng.nextInt(users.length)];
+                if (!liker.equals(p.getAuthor()))
+                    p.addLike(liker);
+            }
+            ps.add(p);
+        }
+        long after = usedHeap();
+        // il riferimento nella lista occupa 4 o 8 byte per post: lo sottraggo approssimativamente
+        double perPost = (double) (after - before) / n - 4;
+        System.out.printf("%d post: %.1f byte per post (like in media: %.2f)\n", ps.size(), perPost,
+                averageLikes(ps));
+    }
+
+    /* crea n post a caso con autori e like scelti tra users utenti */
+    private static List<Post> randomPosts(int n, int users, Random rng) throws Exception {
+        List<Post> ps = new ArrayList<Post>(n);
+        for (int i = 0; i < n; i++) {
+            Post p = new Post("Utente" + rng.nextInt(users), "Testo di prova " + i, new Date(rng.nextLong(1L << 40)));
+            for (int k = rng.nextInt(4); k > 0; k--) {
+                String liker = "Utente" + rng.nextInt(users);
+                if (!liker.equals(p.getAuthor()))
+                    p.addLike(liker);
+            }
+            ps.add(p);
+        }
+        return ps;
+    }
+
+    /*
+        Ogni analisi viene ripetuta più volte e si stampa il tempo migliore, così
+        da escludere il tempo di compilazione JIT delle prime esecuzioni
+    */
+    private static void scan(int n) throws Exception {
+        List<Post> ps = randomPosts(n, Math.max(1, n / 20), new Random(42));
+        SocialNetwork net = new SocialNetwork();
+        long build = Long.MAX_VALUE, list = Long.MAX_VALUE, cols = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            PostColumns c = new PostColumns(ps);
+            long t1 = System.nanoTime();
+            Map<String, Set<String>> a = net.guessFollowing(ps);
+            Map<String, Set<String>> b = net.guessFollowers(ps);
+            long t2 = System.nanoTime();
+            Map<String, Set<String>> ac = c.followers();
+            Map<String, Set<String>> bc = c.following();
+            long t3 = System.nanoTime();
+            if (!a.equals(ac) || !b.equals(bc))
+                throw new AssertionError("PostColumns non corrisponde a guessFollowing/guessFollowers");
+            build = Math.min(build, t1 - t0);
+            list = Math.min(list, t2 - t1);
+            cols = Math.min(cols, t3 - t2);
+        }
+        System.out.printf("%d post: lista %.1f ms, colonne %.1f ms (+ %.1f ms per costruirle)\n", n,
+                list / 1e6, cols / 1e6, build / 1e6);
+    }
+
+    /*
+        Inserisce gli stessi n post in reti vuote, uno alla volta e con un solo lotto.
+        Prima di ogni misura si libera la rete precedente, così il garbage collector
+        non penalizza la seconda delle due
+    */
+    private static void batch(int n) throws Exception {
+        List<Post> ps = randomPosts(n, Math.max(1, n / 20), new Random(42));
+        long single = Long.MAX_VALUE, batched = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            SocialNetwork net = new SocialNetwork();
+            usedHeap();
+            long t0 = System.nanoTime();
+            for (Post p : ps) {
+                net.addPost(p);
+            }
+            single = Math.min(single, System.nanoTime() - t0);
+            int size = net.getPosts().size();
+            net = new SocialNetwork();
+            usedHeap();
+            t0 = System.nanoTime();
+            BatchResult r = net.addPosts(ps);
+            batched = Math.min(batched, System.nanoTime() - t0);
+            if (r.failures() != 0 || net.getPosts().size() != size)
+                throw new AssertionError("addPosts non corrisponde ad addPost");
+        }
+        System.out.printf("%d post: addPost %.1f ms, addPosts %.1f ms\n", n, single / 1e6, batched / 1e6);
+    }
+
+    private static void snapshot(int n) throws Exception {
+        List<Post> ps = randomPosts(n, Math.max(1, n / 20), new Random(42));
+        Path file = Files.createTempFile("benchmark", ".snap");
+        try {
+            long build = Long.MAX_VALUE, save = Long.MAX_VALUE, load = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                usedHeap();
+                long t0 = System.nanoTime();
+                SocialNetwork net = new SocialNetwork(ps);
+                long t1 = System.nanoTime();
+                net.save(file);
+                long t2 = System.nanoTime();
+                net = null;
+                usedHeap();
+                long t3 = System.nanoTime();
+                SocialNetwork loaded = SocialNetwork.load(file);
+                long t4 = System.nanoTime();
+                if (loaded.getPosts().size() != ps.size())
+                    throw new AssertionError("la rete caricata non corrisponde a quella salvata");
+                build = Math.min(build, t1 - t0);
+                save = Math.min(save, t2 - t1);
+                load = Math.min(load, t4 - t3);
+            }
+            System.out.printf("%d post: costruzione %.1f ms, save %.1f ms (%d KB), load %.1f ms"
+                    + " (indice delle parole e classifica ricostruiti)\n", n, build / 1e6,
+                    save / 1e6, Files.size(file) / 1024, load / 1e6);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void log(int n) throws Exception {
+        // la prima esecuzione serve solo a compilare il codice con il JIT
+        logged(n, null, 1);
+        System.out.printf("senza registro: %.2f us per modifica\n", logged(n, null, 1) / 1e3);
+        for (MutationLog.Durability d : MutationLog.Durability.values()) {
+            for (int threads : new int[] { 1, 16 }) {
+                Path file = Files.createTempFile("benchmark", ".log");
+                try {
+                    MutationLog log = new MutationLog(file, d, 10);
+                    double perOp = logged(n, log, threads);
+                    log.close();
+                    System.out.printf("%s, %d thread: %.2f us per modifica, %d force(), %d KB\n", d, threads,
+                            perOp / 1e3, log.syncs(), Files.size(file) / 1024);
+                } finally {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /* ns per modifica di n modifiche (metà publish e metà likePost) divise tra threads thread */
+    private static double logged(int n, MutationLog log, int threads) throws Exception {
+        SocialNetwork net = new SocialNetwork();
+        net.setLog(log);
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers[t] = new Thread(() -> {
+                Random rng = new Random(seed);
+                try {
+                    for (int i = 0; i < n / threads / 2; i++) {
+                        Post p = net.publish("Utente" + rng.nextInt(1000), "Testo di prova " + i, new Date());
+                        net.likePost(p.getIntId(), "Lettore" + rng.nextInt(1000));
+                    }
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        if (log != null)
+            log.sync();
+        return (double) (System.nanoTime() - start) / n;
+    }
+
+    private static void print(int n) throws Exception {
+        Path file = Files.createTempFile("benchmark", ".txt");
+        try {
+            for (int size : new int[] { n / 4, n / 2, n }) {
+                SocialNetwork net = new SocialNetwork(randomPosts(size, Math.max(1, size / 20), new Random(42)));
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    long t0 = System.nanoTime();
+                    try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                        net.print(out, Integer.MAX_VALUE, null);
+                    }
+                    best = Math.min(best, System.nanoTime() - t0);
+                }
+                System.out.printf("%d post: print %.1f ms (%d KB), %.2f us per post\n", size, best / 1e6,
+                        Files.size(file) / 1024, best / 1e3 / size);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static double averageLikes(List<Post> ps) {
+        long total = 0;
+        for (Post p : ps) {
+            total += p.likeCount();
+        }
+        return (double) total / ps.size();
+    }
+};
@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BlockIdAllocator implements IdAllocator {
+    /*
+    @overview:  BlockIdAllocator è un IdAllocator che divide l'intervallo di id
+                [0, Integer.MAX_VALUE - 1] in blocchi consecutivi di dimensione fissa.
+                Ogni thread riserva un blocco intero con una sola operazione atomica
+                e poi assegna gli id del blocco senza sincronizzazione, quindi i thread
+                non si contendono nulla se non al cambio di blocco.
+                Gli id sono unici per costruzione (nessuna collisione, a differenza
+                degli id casuali), ma non sono in ordine di creazione tra thread diversi.
+    */
+
+    /* variabili d'istanza (private) */
+    // dimensione di ogni blocco
+    private final int blockSize;
+    // indice del prossimo blocco libero
+    private final AtomicInteger nextBlock;
+    // blocco corrente di ogni thread: {prossimo id, fine del blocco (esclusa)}
+    private final ThreadLocal<int[]> current;
+    // id più grande segnato come assegnato da reserve (-1 se nessuno)
+    private volatile int floor;
+
+    // limite superiore (escluso) degli id, come per gli id casuali generati in passato
+    private static final int LIMIT = Integer.MAX_VALUE - 1;
+
+    /*
+    Funzione di astrazione
+    AF(x) = {id : 0 <= id < x.nextBlock.get() * x.blockSize
+                  && (id <= x.floor
+                      || id non appartiene alla parte non ancora usata del blocco
+                         corrente di un thread (cioè id ∉ [b[0], b[1]) per ogni b = x.current))}
+
+    Invariante di rappresentazione
+    IR(x) = x.blockSize > 0 && x.nextBlock != null && x.current != null
+            && x.nextBlock.get() >= 0 && x.floor < x.nextBlock.get() * x.blockSize
+            && ∀ b. b = blocco corrente di un thread
+                && b[0] <= b[1] <= min(x.nextBlock.get() * x.blockSize, LIMIT)
+                && blocchi di thread diversi sono disgiunti
+    */
+
+    /*
+    @requires:  blockSize > 0
+    @throws:    Se blockSize <= 0 solleva IllegalArgumentException
+    @effects:   Crea un allocatore che non ha ancora assegnato alcun id e che
+                riserva blocchi di blockSize id per thread
+    */
+    public BlockIdAllocator(int blockSize) throws IllegalArgumentException {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException();
+        this.blockSize = blockSize;
+        this.nextBlock = new AtomicInteger();
+        this.current = ThreadLocal.withInitial(() -> new int[2]);
+        this.floor = -1;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Crea un allocatore con blocchi di 1024 id
+    */
+    public BlockIdAllocator() {
+        this(1024);
+    }
+
+    /*
+    @requires:  true
+    @throws:    Se tutti i blocchi sono stati riservati e il blocco del thread
+                corrente è esaurito solleva IllegalStateException
+    @modifies:  this
+    @effects:   Ritorna il prossimo id del blocco del thread corrente, riservando
+                un nuovo blocco se quello corrente è esaurito
+    */
+    public int next() throws IllegalStateException {
+        int[] block = this.current.get();
+        // la parte del blocco fino a floor è stata assegnata altrove (vedi reserve)
+        int f = this.floor;
+        if (block[0] <= f)
+            block[0] = (int) Math.min(f + 1L, block[1]);
+        if (block[0] == block[1]) {
+            // blocco esaurito: ne riservo un altro (unica operazione condivisa tra i thread)
+            int b = this.nextBlock.getAndIncrement();
+            if (b < 0 || b >= (LIMIT + (long) this.blockSize - 1) / this.blockSize)
+                throw new IllegalStateException("Id esauriti");
+            long start = (long) b * this.blockSize;
+            block[0] = (int) start;
+            block[1] = (int) Math.min(start + this.blockSize, LIMIT);
+        }
+        return block[0]++;
+    }
+
+    /*
+    Porta nextBlock oltre il blocco di id: i blocchi successivi non contengono id
+    già assegnati, e i thread scartano la parte del blocco corrente fino a floor
+
+    @requires:  id >= 0
+    @modifies:  this
+    @effects:   Aggiunge {0, ..., id} all'insieme degli id assegnati
+    */
+    public void reserve(int id) {
+        if (id <= this.floor)
+            return;
+        synchronized (this) {
+            if (id <= this.floor)
+                return;
+            int block = (int) Math.min((long) id / this.blockSize + 1, Integer.MAX_VALUE);
+            this.nextBlock.accumulateAndGet(block, Math::max);
+            this.floor = id;
+        }
+    }
+};
@@ -0,0 +1,270 @@
+/* testa SocialNetwork con più thread che la modificano in parallelo */
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class ConcurrentTest {
+    // utenti e parole usati per generare post e like a caso
+    private static final int USERS = 500;
+    private static final String[] WORDS = { "Lorem", "ipsum", "dolor", "sit", "amet", "Linux", "prova", "Java" };
+
+    /*
+        Il main esegue lo stesso carico di addPost, likePost e rmPost con un numero
+        crescente di thread sulla stessa rete, poi verifica con un assert che la rete
+        rispetti l'invariante di rappresentazione e stampa il throughput ottenuto.
+        Tutti i post hanno id assegnati dall'allocatore, quindi non devono esserci
+        conflitti di id.
+        Poi verifica che il registro delle modifiche, riapplicato ad una rete vuota,
+        ricostruisca la stessa rete e che la lettura a pagine non perda post inseriti
+        in parallelo. Infine confronta la costruzione sequenziale e
+        quella parallela di una rete moderata a partire dalla stessa lista di post.
+        Il numero di operazioni per esecuzione può essere passato come argomento.
+        (va eseguito con java -ea ConcurrentTest, dalla cartella che contiene badwords.txt)
+    */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        // almeno 4 thread, così da avere interleaving anche su macchine con pochi core
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        System.out.println("***Throughput al variare del numero di thread***");
+        for (int t = 1; t <= maxThreads; t *= 2) {
+            SocialNetwork net = new SocialNetwork();
+            long elapsed = run(net, t, ops);
+            assert net.repOk() : "IR violato dopo l'esecuzione con " + t + " thread";
+            System.out.printf("%d thread: %d operazioni in %.1f ms (%.0f op/s), %d post\n", t, ops,
+                    elapsed / 1e6, ops * 1e9 / elapsed, net.getPosts().size());
+        }
+
+        /*  ripeto con la rete moderata: i post segnalati devono essere esattamente
+            quelli presenti che contengono una parola offensiva */
+        System.out.println("***ModeratedSocialNetwork***");
+        ModeratedSocialNetwork mnet = new ModeratedSocialNetwork();
+        run(mnet, maxThreads, ops);
+        assert mnet.repOk();
+        Set<String> bad = ModeratedSocialNetwork.getBadwords();
+        Set<Integer> reported = mnet.getOffensive();
+        int offensive = 0;
+        for (Post p : mnet.getPosts()) {
+            boolean isBad = false;
+            for (String w : p.getText().split(" ")) {
+                isBad = isBad || bad.contains(w);
+            }
+            assert isBad == reported.contains(p.getId());
+            if (isBad)
+                offensive++;
+        }
+        assert offensive == reported.size();
+        System.out.println(mnet.getPosts().size() + " post, di cui segnalati: " + offensive);
+
+        /*  con un registro GROUP ogni operazione attende la scrittura sul disco, ma i
+            thread concorrenti la condividono: riapplicando il registro ad una rete
+            vuota devo ottenere la stessa rete, con gli stessi post segnalati */
+        System.out.println("***Registro delle modifiche***");
+        Path wal = Files.createTempFile("concurrent", ".log");
+        try {
+            ModeratedSocialNetwork logged = new ModeratedSocialNetwork();
+            MutationLog log = new MutationLog(wal, MutationLog.Durability.GROUP, 5);
+            logged.setLog(log);
+            long elapsed = run(logged, maxThreads, ops / 10);
+            log.close();
+            ModeratedSocialNetwork recovered = new ModeratedSocialNetwork();
+            long replayed = MutationLog.replay(wal, recovered);
+            assert recovered.equals(logged) && logged.equals(recovered) && recovered.repOk();
+            assert recovered.getOffensive().equals(logged.getOffensive());
+            System.out.printf("%d thread: %d operazioni in %.1f ms, %d modifiche registrate con %d force()\n",
+                    maxThreads, ops / 10, elapsed / 1e6, replayed, log.syncs());
+        } finally {
+            Files.delete(wal);
+        }
+
+        /*  un lettore scorre i post a pagine mentre altri thread ne pubblicano di nuovi:
+            riprendendo sempre dal cursore della pagina precedente deve leggere tutti
+            i post una volta sola, nello stesso ordine di getPosts() */
+        System.out.println("***Paginazione con inserimenti concorrenti***");
+        SocialNetwork paged = new SocialNetwork();
+        Thread[] writers = new Thread[maxThreads];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                ThreadLocalRandom rng = ThreadLocalRandom.current();
+                for (int i = 0; i < ops / 10 / writers.length; i++) {
+                    try {
+                        paged.publish("u" + rng.nextInt(USERS), WORDS[rng.nextInt(WORDS.length)], new Date());
+                    } catch (Exception ex) {
+                        throw new AssertionError(ex);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        List<Post> read = new ArrayList<Post>();
+        long cursor = 0;
+        int pages = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread w : writers) {
+                running = running || w.isAlive();
+            }
+            // dopo la fine degli inserimenti leggo le pagine rimaste
+            PostPage page;
+            do {
+                page = paged.getPosts(cursor, 64);
+                read.addAll(page.getPosts());
+                cursor = page.getNext();
+                pages++;
+            } while (!running && !page.isEmpty());
+        }
+        assert read.equals(paged.getPosts()) && paged.repOk();
+        System.out.printf("%d post letti in %d pagine\n", read.size(), pages);
+
+        /*  un thread mette like ad un solo post (che supera presto SMALL like) mentre
+            leggo la rete per colonne: l'insieme dei like cresce durante la lettura */
+        System.out.println("***Colonne con like concorrenti***");
+        SocialNetwork viral = new SocialNetwork();
+        Post hot;
+        try {
+            hot = viral.publish("Autore", "virale", new Date());
+        } catch (TextOverflowException | DuplicatePostException ex) {
+            throw new AssertionError(ex);
+        }
+        Thread liker = new Thread(() -> {
+            for (int i = 0; i < ops / 10; i++) {
+                try {
+                    viral.likePost(hot.getId(), "u" + i);
+                } catch (Exception ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        });
+        liker.start();
+        int builds = 0, seen = 0;
+        while (liker.isAlive() || builds == 0) {
+            PostColumns cols = new PostColumns(viral.getPosts());
+            int n = cols.post(0).getLikes().size();
+            assert n >= seen;
+            seen = n;
+            builds++;
+        }
+        liker.join();
+        assert viral.repOk() && hot.likeCount() == ops / 10;
+        System.out.printf("%d letture per colonne durante %d like\n", builds, ops / 10);
+
+        /*  la costruzione parallela da una lista deve dare la stessa rete di quella
+            sequenziale, anche in presenza di id duplicati (vale il primo) */
+        System.out.println("***Costruzione da lista di post***");
+        List<Post> ps = randomPosts(ops);
+        long start = System.nanoTime();
+        ModeratedSocialNetwork seq = new ModeratedSocialNetwork(ps, 1);
+        long mid = System.nanoTime();
+        ModeratedSocialNetwork par = new ModeratedSocialNetwork(ps, maxThreads);
+        long end = System.nanoTime();
+        assert seq.equals(par) && par.equals(seq) && par.repOk();
+        assert seq.getPosts().equals(par.getPosts()) && seq.getOffensive().equals(par.getOffensive());
+        System.out.printf("%d post: sequenziale %.1f ms, %d thread %.1f ms\n", ps.size(), (mid - start) / 1e6,
+                maxThreads, (end - mid) / 1e6);
+
+        System.out.println("***guessFollowers e guessFollowing paralleli***");
+        start = System.nanoTime();
+        Map<String, Set<String>> followers = seq.guessFollowers(ps);
+        Map<String, Set<String>> following = seq.guessFollowing(ps);
+        mid = System.nanoTime();
+        Map<String, Set<String>> parFollowers = seq.guessFollowers(ps, maxThreads);
+        Map<String, Set<String>> parFollowing = seq.guessFollowing(ps, maxThreads);
+        end = System.nanoTime();
+        assert followers.equals(parFollowers) && following.equals(parFollowing);
+        System.out.printf("%d post: sequenziale %.1f ms, %d thread %.1f ms\n", ps.size(), (mid - start) / 1e6,
+                maxThreads, (end - mid) / 1e6);
+    }
+
+    /* crea n post a caso, di cui circa uno su cento con un id già usato da un altro post */
+    private static List<Post> randomPosts(int n) {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        List<Post> ps = new ArrayList<Post>(n);
+        for (int i = 0; i < n; i++) {
+            String author = "Utente" + rng.nextInt(USERS);
+            String text = WORDS[rng.nextInt(WORDS.length)] + " " + WORDS[rng.nextInt(WORDS.length)];
+            Date date = new Date(rng.nextLong(1L << 40));
+            try {
+                Post p = i > 0 && rng.nextInt(100) == 0
+                        ? new Post(ps.get(rng.nextInt(i)).getId(), author, text, date)
+                        : new Post(author, text, date);
+                for (int k = rng.nextInt(4); k > 0; k--) {
+                    String liker = "Utente" + rng.nextInt(USERS);
+                    if (!liker.equals(author))
+                        p.addLike(liker);
+                }
+                ps.add(p);
+            } catch (TextOverflowException | SelfLikeException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+        return ps;
+    }
+
+    /* esegue ops operazioni a caso su net ripartite tra nThreads thread e ritorna il tempo impiegato in ns */
+    private static long run(SocialNetwork net, int nThreads, int ops) throws InterruptedException {
+        // id di post aggiunti di recente, condivisi tra i thread per like e rimozioni
+        AtomicIntegerArray recent = new AtomicIntegerArray(4096);
+        Thread[] workers = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            workers[i] = new Thread(() -> work(net, recent, ops / nThreads));
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /* corpo di un thread: 30% addPost o publish, 60% likePost o likePosts, 10% rmPost o rmPosts */
+    private static void work(SocialNetwork net, AtomicIntegerArray recent, int ops) {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        for (int i = 0; i < ops; i++) {
+            int op = rng.nextInt(10);
+            int slot = rng.nextInt(recent.length());
+            try {
+                if (op < 3) {
+                    String text = WORDS[rng.nextInt(WORDS.length)] + " " + WORDS[rng.nextInt(WORDS.length)];
+                    String author = "Utente" + rng.nextInt(USERS);
+                    Date date = new Date(rng.nextLong(1L << 40));
+                    Post p;
+                    if (rng.nextBoolean()) {
+                        // post creato dalla rete: nessun controllo sui duplicati
+                        p = net.publish(author, text, date);
+                    } else {
+                        p = new Post(author, text, date);
+                        p.addLike("Utente" + rng.nextInt(USERS));
+                        net.addPost(p);
+                    }
+                    recent.set(slot, p.getId());
+                } else if (op < 8) {
+                    net.likePost(recent.get(slot), "Utente" + rng.nextInt(USERS));
+                } else if (op < 9) {
+                    // lotto di like su due post a caso: gli errori sono nel risultato
+                    int other = rng.nextInt(recent.length());
+                    net.likePosts(List.of(Map.entry(recent.get(slot), "Utente" + rng.nextInt(USERS)),
+                            Map.entry(recent.get(other), "Utente" + rng.nextInt(USERS))));
+                } else if (rng.nextBoolean()) {
+                    net.rmPost(recent.get(slot));
+                } else {
+                    net.rmPosts(List.of(recent.get(slot), recent.get(rng.nextInt(recent.length()))));
+                }
+            } catch (SelfLikeException | NoSuchPostException | TextOverflowException ex) {
+                // eccezioni previste: like al proprio post o post già rimosso
+            } catch (DuplicatePostException ex) {
+                // gli id assegnati dall'allocatore sono unici: non deve mai succedere
+                throw new AssertionError(ex);
+            }
+        }
+    }
+};
@@ -0,0 +1,243 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class FollowGraph {
+    /*
+    @overview:  FollowGraph è un tipo di dato astratto modificabile che rappresenta il
+                grafo dei like di una rete sociale: un dizionario di utenti, ciascuno
+                codificato una sola volta con un intero denso (0, 1, 2, ...), e un
+                multiinsieme di archi liker → autore, dove la molteplicità di un arco
+                è il numero di post dell'autore a cui liker ha messo like.
+                Gli archi sono memorizzati come interi (IntSet e IntCountMap), non come
+                String in Set di oggetti.
+                Elemento tipico: (users = [u_0, ..., u_n-1], edges = {(l, a) → c, ...})
+
+                Il dizionario è sicuro rispetto ai thread. Gli archi di un utente invece
+                non lo sono: chi modifica o legge archi che coinvolgono u deve possedere
+                un lock associato a u (in SocialNetwork la striscia di u).
+    */
+
+    /* nodo del grafo: nome dell'utente e archi entranti/uscenti (creati solo se servono) */
+    private static final class Node {
+        private final String name;
+        // utenti che seguono questo utente
+        private IntSet followers;
+        // utenti seguiti da questo utente, ciascuno con la molteplicità dell'arco
+        private IntCountMap following;
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    /* variabili d'istanza (private) */
+    // codifica: associa ad ogni nome il suo intero
+    private final Map<String, Integer> codes;
+    // decodifica a pagine: il nodo dell'utente id è pages[id >>> PAGE_BITS][id & (PAGE - 1)]
+    private volatile Node[][] pages;
+    // numero di utenti codificati
+    private volatile int size;
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE = 1 << PAGE_BITS;
+
+    /*
+    Funzione di astrazione
+    AF(x) = (
+                users = [node(0).name, ..., node(x.size - 1).name],
+                edges = {(l, a) → node(l).following.get(a) :
+                            0 <= l < x.size && node(l).following != null
+                            && a ∊ dom(node(l).following)}
+            )
+    dove node(i) = x.pages[i >>> PAGE_BITS][i & (PAGE - 1)]
+
+    Invariante di rappresentazione
+    IR(x) = x.codes != null && x.pages != null && x.codes.size() == x.size
+            && ∀ i. 0 <= i < x.size ==> node(i) != null && x.codes.get(node(i).name) == i
+            && ∀ (l, a). (node(l).following != null && a ∊ dom(node(l).following))
+                <==> (node(a).followers != null && l ∊ node(a).followers)
+    */
+
+    /*
+    @requires:  true
+    @effects:   Crea un grafo senza utenti né archi
+    */
+    FollowGraph() {
+        this.codes = new ConcurrentHashMap<String, Integer>();
+        this.pages = new Node[1][];
+        this.pages[0] = new Node[PAGE];
+    }
+
+    /*
+    @requires:  name != null
+    @throws:    Se name == null solleva NullPointerException
+    @modifies:  this
+    @effects:   Se name ∊ users ritorna il suo intero, altrimenti aggiunge name
+                in fondo a users e ritorna users.size() - 1
+    */
+    int intern(String name) throws NullPointerException {
+        Integer code = this.codes.get(name);
+        if (code != null)
+            return code;
+        synchronized (this) {
+            code = this.codes.get(name);
+            if (code != null)
+                return code;
+            int id = this.size;
+            Node[][] dir = this.pages;
+            if ((id >>> PAGE_BITS) == dir.length) {
+                // la directory è piena: ne creo una più grande, le pagine restano le stesse
+                Node[][] bigger = new Node[dir.length * 2][];
+                System.arraycopy(dir, 0, bigger, 0, dir.length);
+                dir = bigger;
+            }
+            if (dir[id >>> PAGE_BITS] == null)
+                dir[id >>> PAGE_BITS] = new Node[PAGE];
+            dir[id >>> PAGE_BITS][id & (PAGE - 1)] = new Node(name);
+            this.pages = dir;
+            this.size = id + 1;
+            // pubblico il codice solo quando il nodo è già visibile
+            this.codes.put(name, id);
+            return id;
+        }
+    }
+
+    /*
+    @requires:  name != null
+    @throws:    Se name == null solleva NullPointerException
+    @effects:   Ritorna l'intero di name se name ∊ users, -1 altrimenti
+    */
+    int lookup(String name) throws NullPointerException {
+        Integer code = this.codes.get(name);
+        return code == null ? -1 : code;
+    }
+
+    private Node node(int id) {
+        return this.pages[id >>> PAGE_BITS][id & (PAGE - 1)];
+    }
+
+    /*
+    @requires:  0 <= id < size()
+    @effects:   Ritorna users.get(id)
+    */
+    String name(int id) {
+        return node(id).name;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna users.size()
+    */
+    int size() {
+        return this.size;
+    }
+
+    /*
+    @requires:  0 <= liker, author < size() && il chiamante possiede i lock di liker e di author
+    @modifies:  this
+    @effects:   Esegue edges(liker, author) → edges(liker, author) + 1 e ritorna true
+                se e solo se l'arco non era presente (molteplicità passata da 0 a 1)
+    */
+    boolean addEdge(int liker, int author) {
+        return addEdge(liker, author, 1);
+    }
+
+    /*
+    @requires:  0 <= liker, author < size() && count > 0
+                && il chiamante possiede i lock di liker e di author
+    @modifies:  this
+    @effects:   Esegue edges(liker, author) → edges(liker, author) + count e ritorna
+                true se e solo se l'arco non era presente
+    */
+    boolean addEdge(int liker, int author, int count) {
+        Node l = node(liker);
+        if (l.following == null)
+            l.following = new IntCountMap();
+        if (l.following.add(author, count) > count)
+            return false;
+        Node a = node(author);
+        if (a.followers == null)
+            a.followers = new IntSet();
+        a.followers.add(liker);
+        return true;
+    }
+
+    /*
+    @requires:  0 <= liker, author < size() && il chiamante possiede i lock di liker e di author
+    @modifies:  this
+    @effects:   Se (liker, author) ∊ edges ne decrementa la molteplicità e ritorna true
+                se e solo se l'arco è stato rimosso (molteplicità passata da 1 a 0);
+                altrimenti ritorna false
+    */
+    boolean removeEdge(int liker, int author) {
+        Node l = node(liker);
+        if (l.following == null || l.following.get(author) == 0)
+            return false;
+        if (l.following.decrement(author) > 0)
+            return false;
+        node(author).followers.remove(liker);
+        return true;
+    }
+
+    /*
+    @requires:  0 <= liker, author < size() && il chiamante possiede il lock di liker
+    @effects:   Ritorna edges(liker, author) (0 se l'arco non è presente)
+    */
+    int multiplicity(int liker, int author) {
+        IntCountMap f = node(liker).following;
+        return f == null ? 0 : f.get(author);
+    }
+
+    /*
+    @requires:  0 <= id < size() && il chiamante possiede il lock di id
+    @effects:   Ritorna #{l : (l, id) ∊ edges}
+    */
+    int followerCount(int id) {
+        IntSet f = node(id).followers;
+        return f == null ? 0 : f.size();
+    }
+
+    /*
+    @requires:  0 <= id < size() && il chiamante possiede il lock di id
+    @effects:   Ritorna #{a : (id, a) ∊ edges}
+    */
+    int followingCount(int id) {
+        IntCountMap f = node(id).following;
+        return f == null ? 0 : f.size();
+    }
+
+    /*
+    @requires:  0 <= id, other < size() && il chiamante possiede il lock di id
+    @effects:   Ritorna true se e solo se (other, id) ∊ edges
+    */
+    boolean isFollowedBy(int id, int other) {
+        IntSet f = node(id).followers;
+        return f != null && f.contains(other);
+    }
+
+    /*
+    @requires:  0 <= id, other < size() && il chiamante possiede il lock di id
+    @effects:   Ritorna true se e solo se (id, other) ∊ edges
+    */
+    boolean isFollowing(int id, int other) {
+        return multiplicity(id, other) > 0;
+    }
+
+    /*
+    @requires:  0 <= id < size() && il chiamante possiede il lock di id
+    @effects:   Ritorna un array con gli interi di {l : (l, id) ∊ edges}
+    */
+    int[] followers(int id) {
+        IntSet f = node(id).followers;
+        return f == null ? new int[0] : f.toArray();
+    }
+
+    /*
+    @requires:  0 <= id < size() && il chiamante possiede il lock di id
+    @effects:   Ritorna un array con gli interi di {a : (id, a) ∊ edges}
+    */
+    int[] following(int id) {
+        IntCountMap f = node(id).following;
+        return f == null ? new int[0] : f.keys();
+    }
+};
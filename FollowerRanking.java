@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class FollowerRanking {
+    /*
+    @overview:  FollowerRanking è un tipo di dato astratto modificabile che rappresenta
+                una classifica di utenti in base al numero dei loro followers, ovvero
+                una funzione parziale
+                    {users} → N+
+                con elemento tipico {user_1 → n_1, ..., user_k → n_k}.
+                Gli utenti con 0 followers non compaiono nella classifica.
+                I metodi sono synchronized, quindi la classifica può essere aggiornata
+                da più thread (ad esempio da un SocialNetwork condiviso).
+    */
+
+    /* variabili d'istanza (private) */
+    // associa ad ogni numero di followers gli utenti che ne hanno esattamente tanti
+    private TreeMap<Integer, Set<String>> byCount;
+    // numero di followers di ogni utente in classifica
+    private Map<String, Integer> countOf;
+
+    /*
+    Funzione di astrazione
+    AF(x) = {u → x.countOf.get(u) : u ∊ x.countOf.keySet()}
+
+    Invariante di rappresentazione
+    IR(x) = x.byCount != null && x.countOf != null
+            && ∀ u. u ∊ x.countOf.keySet()
+                && x.countOf.get(u) > 0
+                && u ∊ x.byCount.get(x.countOf.get(u))
+            && ∀ n. n ∊ x.byCount.keySet()
+                && x.byCount.get(n) != ∅
+                && ∀ u. u ∊ x.byCount.get(n) && x.countOf.get(u) == n
+    */
+
+    /*
+    @requires:  true
+    @effects:   Crea una classifica vuota
+    */
+    public FollowerRanking() {
+        this.byCount = new TreeMap<Integer, Set<String>>();
+        this.countOf = new HashMap<String, Integer>();
+    }
+
+    /*
+    Crea la classifica a partire da una mappa utente → followers, come quella
+    ritornata da SocialNetwork.guessFollowing()
+
+    @requires:  followers != null && (∀ u. u ∊ followers.keySet() && followers.get(u) != null)
+    @throws:    Se followers == null o uno dei suoi valori è null solleva NullPointerException
+    @effects:   Crea la classifica {u → #{followers.get(u)} : u ∊ followers.keySet()}
+    */
+    public FollowerRanking(Map<String, Set<String>> followers) throws NullPointerException {
+        this();
+        for (Map.Entry<String, Set<String>> e : followers.entrySet()) {
+            this.update(e.getKey(), e.getValue().size());
+        }
+    }
+
+    /*
+    Aggiorna il numero di followers di user in tempo O(log n)
+
+    @requires:  user != null && count >= 0
+    @throws:    Se user == null solleva NullPointerException
+                Se count < 0 solleva IllegalArgumentException
+    @modifies:  this
+    @effects:   Se count > 0 esegue this(user) → count,
+                altrimenti rimuove user dalla classifica
+    */
+    public synchronized void update(String user, int count) throws NullPointerException, IllegalArgumentException {
+        if (user == null)
+            throw new NullPointerException();
+        if (count < 0)
+            throw new IllegalArgumentException();
+        Integer old = this.countOf.get(user);
+        if (old != null && old == count)
+            return;
+        if (old != null) {
+            Set<String> users = this.byCount.get(old);
+            users.remove(user);
+            if (users.isEmpty())
+                this.byCount.remove(old);
+            this.countOf.remove(user);
+        }
+        if (count > 0) {
+            Set<String> users = this.byCount.get(count);
+            if (users == null) {
+                users = new TreeSet<String>();
+                this.byCount.put(count, users);
+            }
+            users.add(user);
+            this.countOf.put(user, count);
+        }
+    }
+
+    /*
+    @requires:  user != null
+    @throws:    Se user == null solleva NullPointerException
+    @effects:   Ritorna this(user) se user è in classifica, 0 altrimenti
+    */
+    public synchronized int count(String user) throws NullPointerException {
+        if (user == null)
+            throw new NullPointerException();
+        Integer n = this.countOf.get(user);
+        return n == null ? 0 : n;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di utenti in classifica
+    */
+    public synchronized int size() {
+        return this.countOf.size();
+    }
+
+    /*
+    Ritorna i k utenti con più followers, scorrendo la classifica dal numero di
+    followers più alto: costo O(k + log n)
+
+    @requires:  k >= 0
+    @throws:    Se k < 0 solleva IllegalArgumentException
+    @effects:   Ritorna la lista dei primi min(k, #utenti) utenti ordinati per numero di
+                followers decrescente (a parità di followers in ordine alfabetico)
+    */
+    public synchronized List<String> top(int k) throws IllegalArgumentException {
+        if (k < 0)
+            throw new IllegalArgumentException();
+        List<String> res = new ArrayList<String>();
+        for (Set<String> users : this.byCount.descendingMap().values()) {
+            for (String u : users) {
+                if (res.size() >= k)
+                    return res;
+                res.add(u);
+            }
+        }
+        return res;
+    }
+
+    /*
+    Ritorna gli utenti con più di treshold followers, visitando solo la parte
+    della classifica che li contiene: costo O(#risultato + log n)
+
+    @requires:  true
+    @effects:   Ritorna la lista [u : u in classifica && this(u) > treshold],
+                ordinata per numero di followers decrescente
+    */
+    public synchronized List<String> above(int treshold) {
+        List<String> res = new ArrayList<String>();
+        NavigableMap<Integer, Set<String>> tail = this.byCount.tailMap(treshold, false).descendingMap();
+        for (Set<String> users : tail.values()) {
+            res.addAll(users);
+        }
+        return res;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna la classifica sotto forma di String
+    */
+    public synchronized String toString() {
+        return this.countOf.toString();
+    }
+};
@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+class HomeTimeline {
+    /*
+    @overview:  HomeTimeline è un tipo di dato astratto modificabile che rappresenta la
+                home timeline di un utente: gli ultimi (al più capacity) numeri d'ordine
+                dei post inviati all'utente da SocialNetwork al momento della pubblicazione
+                (fan-out in scrittura). I numeri sono tenuti in un buffer circolare, in
+                ordine crescente: quando è pieno il più vecchio viene sovrascritto.
+                Il buffer parte piccolo e raddoppia fino a capacity, così un utente con
+                pochi post nella timeline occupa poca memoria.
+                È sicuro rispetto ai thread (i metodi sono synchronized).
+                Elemento tipico: [s_1, ..., s_n] con s_1 < ... < s_n e n <= capacity
+    */
+
+    /* variabili d'istanza (private) */
+    private long[] ring;
+    // posizione di s_1 in ring e numero di elementi
+    private int head;
+    private int size;
+    private final int capacity;
+
+    /*
+    Funzione di astrazione
+    AF(x) = [x.ring[(x.head + i) % x.ring.length] : 0 <= i < x.size]
+
+    Invariante di rappresentazione
+    IR(x) = x.ring != null && 0 < x.ring.length <= x.capacity
+            && 0 <= x.head < x.ring.length && 0 <= x.size <= x.ring.length
+            && ∀ i. 0 < i < x.size ==> AF(x).get(i - 1) < AF(x).get(i)
+    */
+
+    /*
+    @requires:  capacity >= 1
+    @effects:   Crea una timeline vuota che contiene al più capacity post
+    */
+    HomeTimeline(int capacity) {
+        this.capacity = capacity;
+        this.ring = new long[Math.min(capacity, 8)];
+    }
+
+    // i-esimo elemento (da 0) della timeline
+    private long at(int i) {
+        return this.ring[(this.head + i) % this.ring.length];
+    }
+
+    /*
+    I post arrivano quasi sempre in ordine (solo thread che pubblicano insieme
+    possono invertirli), quindi l'inserimento ordinato sposta pochi elementi
+
+    @requires:  seq ∉ this
+    @modifies:  this
+    @effects:   Inserisce seq mantenendo l'ordine; se la timeline aveva già capacity
+                elementi toglie il minimo (che può essere seq stesso)
+    */
+    synchronized void push(long seq) {
+        if (this.size == this.ring.length) {
+            if (this.ring.length < this.capacity) {
+                long[] bigger = new long[Math.min(this.capacity, 2 * this.ring.length)];
+                for (int i = 0; i < this.size; i++) {
+                    bigger[i] = at(i);
+                }
+                this.ring = bigger;
+                this.head = 0;
+            } else {
+                if (seq < at(0))
+                    return;
+                this.head = (this.head + 1) % this.ring.length;
+                this.size--;
+            }
+        }
+        int i = this.size;
+        while (i > 0 && at(i - 1) > seq) {
+            this.ring[(this.head + i) % this.ring.length] = at(i - 1);
+            i--;
+        }
+        this.ring[(this.head + i) % this.ring.length] = seq;
+        this.size++;
+    }
+
+    /*
+    @requires:  max >= 0
+    @effects:   Ritorna i (al più max) elementi di this minori di before,
+                dal più grande al più piccolo, con costo O(log capacity + max)
+    */
+    synchronized long[] before(long before, int max) {
+        // ricerca binaria del primo elemento >= before
+        int lo = 0, hi = this.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (at(mid) < before)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        long[] res = new long[Math.min(lo, max)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = at(lo - 1 - i);
+        }
+        return res;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di elementi di this
+    */
+    synchronized int size() {
+        return this.size;
+    }
+
+    public synchronized String toString() {
+        long[] all = new long[this.size];
+        for (int i = 0; i < this.size; i++) {
+            all[i] = at(i);
+        }
+        return Arrays.toString(all);
+    }
+};
@@ -0,0 +1,28 @@
+public interface IdAllocator {
+    /*
+    @overview:  IdAllocator rappresenta una sorgente di id per i Post: ogni chiamata
+                a next() ritorna un id mai ritornato prima dallo stesso allocatore,
+                anche se next() è invocato da più thread contemporaneamente.
+                Elemento tipico: l'insieme {id_1, ..., id_n} degli id già assegnati
+    */
+
+    /*
+    @requires:  true
+    @throws:    Se gli id disponibili sono esauriti solleva IllegalStateException
+    @modifies:  this
+    @effects:   Ritorna un id >= 0 mai ritornato prima da this
+                e lo aggiunge all'insieme degli id assegnati
+    */
+    int next() throws IllegalStateException;
+
+    /*
+    Segna come assegnati tutti gli id fino a id compreso: serve quando la rete
+    ricarica post i cui id sono stati assegnati in un'altra esecuzione (vedi
+    SocialNetwork.load e MutationLog.replay), così next() non li ritorna di nuovo
+
+    @requires:  id >= 0
+    @modifies:  this
+    @effects:   Aggiunge {0, ..., id} all'insieme degli id assegnati
+    */
+    void reserve(int id);
+};
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+class IntCountMap {
+    /*
+    @overview:  IntCountMap è un tipo di dato astratto modificabile che rappresenta una
+                funzione parziale da interi non negativi a contatori positivi
+                {k_1 → c_1, ..., k_n → c_n}, memorizzata in due array di int paralleli
+                (tabella hash ad indirizzamento aperto, come IntSet).
+                Non è sicuro rispetto ai thread: chi lo condivide deve sincronizzare gli accessi.
+    */
+
+    /* variabili d'istanza (private) */
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    private static final int FREE = -1;
+
+    /*
+    Funzione di astrazione
+    AF(x) = {x.keys[i] → x.counts[i] : 0 <= i < x.keys.length && x.keys[i] != FREE}
+
+    Invariante di rappresentazione
+    IR(x) = x.keys != null && x.counts != null && x.keys.length == x.counts.length
+            && x.keys.length è una potenza di 2
+            && x.size == #{i : x.keys[i] != FREE}
+            && 4 * x.size <= 3 * x.keys.length
+            && ∀ i. x.keys[i] != FREE ==> x.keys[i] >= 0 && x.counts[i] > 0
+                && nessuna cella vuota tra IntSet.home(x.keys[i]) e i (scansione lineare)
+                && ∀ j. j != i ==> x.keys[j] != x.keys[i]
+    */
+
+    /*
+    @requires:  true
+    @effects:   Crea una funzione vuota
+    */
+    IntCountMap() {
+        this.keys = new int[4];
+        this.counts = new int[4];
+        Arrays.fill(this.keys, FREE);
+    }
+
+    // cella che contiene k, oppure la cella vuota in cui andrebbe inserito
+    private int slot(int k) {
+        int mask = this.keys.length - 1;
+        int i = IntSet.home(k, this.keys.length);
+        while (this.keys[i] != FREE && this.keys[i] != k) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /*
+    @requires:  k >= 0
+    @effects:   Ritorna this(k) se k ∊ dom(this), 0 altrimenti
+    */
+    int get(int k) {
+        int i = slot(k);
+        return this.keys[i] == k ? this.counts[i] : 0;
+    }
+
+    /*
+    @requires:  k >= 0
+    @modifies:  this
+    @effects:   Esegue this(k) → get(k) + 1 e ritorna il nuovo valore
+    */
+    int increment(int k) {
+        return add(k, 1);
+    }
+
+    /*
+    @requires:  k >= 0 && delta > 0
+    @modifies:  this
+    @effects:   Esegue this(k) → get(k) + delta e ritorna il nuovo valore
+    */
+    int add(int k, int delta) {
+        int i = slot(k);
+        if (this.keys[i] == k)
+            return this.counts[i] += delta;
+        this.keys[i] = k;
+        this.counts[i] = delta;
+        this.size++;
+        if (4 * this.size > 3 * this.keys.length)
+            rehash(this.keys.length * 2);
+        return delta;
+    }
+
+    /*
+    @requires:  k >= 0
+    @modifies:  this
+    @effects:   Se k ∉ dom(this) ritorna 0 senza modificare this.
+                Altrimenti esegue this(k) → get(k) - 1, rimuove k se il contatore
+                arriva a 0 e ritorna il nuovo valore
+    */
+    int decrement(int k) {
+        int i = slot(k);
+        if (this.keys[i] != k)
+            return 0;
+        if (--this.counts[i] > 0)
+            return this.counts[i];
+        this.size--;
+        // stessa cancellazione con spostamento all'indietro di IntSet.remove
+        int mask = this.keys.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; this.keys[j] != FREE; j = (j + 1) & mask) {
+            int h = IntSet.home(this.keys[j], this.keys.length);
+            if (hole <= j ? (h <= hole || h > j) : (h <= hole && h > j)) {
+                this.keys[hole] = this.keys[j];
+                this.counts[hole] = this.counts[j];
+                hole = j;
+            }
+        }
+        this.keys[hole] = FREE;
+        return 0;
+    }
+
+    // ricostruisce la tabella con la nuova lunghezza
+    private void rehash(int length) {
+        int[] oldKeys = this.keys;
+        int[] oldCounts = this.counts;
+        this.keys = new int[length];
+        this.counts = new int[length];
+        Arrays.fill(this.keys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int j = slot(oldKeys[i]);
+                this.keys[j] = oldKeys[i];
+                this.counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna #dom(this)
+    */
+    int size() {
+        return this.size;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna un array con gli elementi di dom(this) (in un ordine qualsiasi)
+    */
+    int[] keys() {
+        int[] res = new int[this.size];
+        int n = 0;
+        for (int k : this.keys) {
+            if (k != FREE)
+                res[n++] = k;
+        }
+        return res;
+    }
+};
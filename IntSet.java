@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+class IntSet {
+    /*
+    @overview:  IntSet è un tipo di dato astratto modificabile che rappresenta un
+                insieme di interi non negativi {i_1, ..., i_n}, memorizzati in un array
+                di int (tabella hash ad indirizzamento aperto) invece che come oggetti
+                Integer: ogni elemento occupa pochi byte.
+                Non è sicuro rispetto ai thread: chi lo condivide deve sincronizzare gli accessi.
+    */
+
+    /* variabili d'istanza (private) */
+    // tabella con scansione lineare: FREE indica una cella vuota
+    private int[] table;
+    private int size;
+
+    private static final int FREE = -1;
+
+    /*
+    Funzione di astrazione
+    AF(x) = {x.table[i] : 0 <= i < x.table.length && x.table[i] != FREE}
+
+    Invariante di rappresentazione
+    IR(x) = x.table != null && x.table.length è una potenza di 2
+            && x.size == #{i : x.table[i] != FREE}
+            && 4 * x.size <= 3 * x.table.length
+            && ∀ i. x.table[i] != FREE ==> x.table[i] >= 0
+                && nessuna cella vuota tra slot(x.table[i]) e i (scansione lineare)
+                && ∀ j. j != i ==> x.table[j] != x.table[i]
+    */
+
+    /*
+    @requires:  true
+    @effects:   Crea un insieme vuoto
+    */
+    IntSet() {
+        this.table = new int[4];
+        Arrays.fill(this.table, FREE);
+    }
+
+    // posizione iniziale di v nella tabella di lunghezza length
+    static int home(int v, int length) {
+        int h = v * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (length - 1);
+    }
+
+    // cella che contiene v, oppure la cella vuota in cui andrebbe inserito
+    private int slot(int v) {
+        int mask = this.table.length - 1;
+        int i = home(v, this.table.length);
+        while (this.table[i] != FREE && this.table[i] != v) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /*
+    @requires:  v >= 0
+    @effects:   Ritorna true se e solo se v ∊ this
+    */
+    boolean contains(int v) {
+        return this.table[slot(v)] == v;
+    }
+
+    /*
+    @requires:  v >= 0
+    @modifies:  this
+    @effects:   Esegue this = this U {v} e ritorna true se e solo se v ∉ this prima della chiamata
+    */
+    boolean add(int v) {
+        int i = slot(v);
+        if (this.table[i] == v)
+            return false;
+        this.table[i] = v;
+        this.size++;
+        if (4 * this.size > 3 * this.table.length)
+            rehash(this.table.length * 2);
+        return true;
+    }
+
+    /*
+    @requires:  v >= 0
+    @modifies:  this
+    @effects:   Esegue this = this - {v} e ritorna true se e solo se v ∊ this prima della chiamata
+    */
+    boolean remove(int v) {
+        int i = slot(v);
+        if (this.table[i] != v)
+            return false;
+        this.size--;
+        // sposto indietro gli elementi successivi che non si troverebbero più
+        // partendo dalla loro posizione iniziale (niente marcatori di cancellazione)
+        int mask = this.table.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; this.table[j] != FREE; j = (j + 1) & mask) {
+            int h = home(this.table[j], this.table.length);
+            if (hole <= j ? (h <= hole || h > j) : (h <= hole && h > j)) {
+                this.table[hole] = this.table[j];
+                hole = j;
+            }
+        }
+        this.table[hole] = FREE;
+        return true;
+    }
+
+    // ricostruisce la tabella con la nuova lunghezza
+    private void rehash(int length) {
+        int[] old = this.table;
+        this.table = new int[length];
+        Arrays.fill(this.table, FREE);
+        for (int v : old) {
+            if (v != FREE)
+                this.table[slot(v)] = v;
+        }
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di elementi di this
+    */
+    int size() {
+        return this.size;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna un array con gli elementi di this (in un ordine qualsiasi)
+    */
+    int[] toArray() {
+        int[] res = new int[this.size];
+        int n = 0;
+        for (int v : this.table) {
+            if (v != FREE)
+                res[n++] = v;
+        }
+        return res;
+    }
+};
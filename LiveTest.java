@@ -1,7 +1,13 @@
+import java.io.IOException;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.Scanner;
+import java.util.Set;
 
 public class LiveTest {
+	// posts printed after each command, the others are only counted
+	private static final int SHOWN_POSTS = 20;
+
 	public static void main(String[] args) {
 		// an empty social network
 		SocialNetwork net = new SocialNetwork();
@@ -9,7 +15,12 @@ public class LiveTest {
 		Scanner read_in = new Scanner(System.in);
 		// add posts until the user types "fine"
 		boolean cont = true;
+		// users modified by the last command
+		Set<String> changed = new LinkedHashSet<String>();
 		do {
+			changed.clear();
+			// only commands that modify the network restrict the output to the changed users
+			boolean mutating = false;
 			System.out.print("Terminate\t[-1]" + "\nAdd post\t[0]" + "\nAdd like\t[1]" + "\nInfluencers\t[2]"
 					+ "\nMentioned\t[3]" + "\n>> ");
 			String ln = read_in.nextLine();
@@ -19,10 +30,12 @@ public class LiveTest {
 					cont = false;
 					break;
 				case 0:
-					new_post(net, read_in);
+					mutating = true;
+					new_post(net, read_in, changed);
 					break;
 				case 1:
-					new_like(net, read_in);
+					mutating = true;
+					new_like(net, read_in, changed);
 					break;
 				case 2:
 					display_influencers(net);
@@ -32,28 +45,34 @@ public class LiveTest {
 					break;
 			}
 
-			// prints the modified social network
-			System.out.println("***Current status***\n" + net.toString() + "********************\n");
+			// streams the social network: after a modification only the followers and following
+			// of the changed users are shown, otherwise those of all users
+			System.out.println("***Current status***");
+			try {
+				net.print(System.out, SHOWN_POSTS, mutating ? changed : null);
+			} catch (IOException e) {
+				// System.out never throws IOException
+			}
+			System.out.println("********************\n");
 		} while (cont);
 
 		// print the social network
 
 	}
-	private static void new_post(SocialNetwork net, Scanner s) {
+	private static void new_post(SocialNetwork net, Scanner s, Set<String> changed) {
 		System.out.println("Insert author: ");
 		String auth = s.nextLine();
 		System.out.println("Insert text: ");
 		String text = s.nextLine();
 		try {
-			// creates an instance with the current UNIX time converted to a date
-			Post ps = new Post(auth, text, new Date(System.currentTimeMillis()));
-			// tries to add it to the social network
-			net.addPost(ps);
+			// lets the network create the post with the current UNIX time converted to a date
+			net.publish(auth, text, new Date(System.currentTimeMillis()));
+			changed.add(auth);
 		} catch (Exception e) {
 			System.out.println("Cannot generate the post: caught exception\n\t" + e);
 		}
 	}
-	private static void new_like(SocialNetwork net, Scanner s) {
+	private static void new_like(SocialNetwork net, Scanner s, Set<String> changed) {
 		System.out.println("Insert pid: ");
 		String pidstr = s.nextLine();
 		Integer pid = Integer.parseInt(pidstr);
@@ -61,7 +80,11 @@ public class LiveTest {
 		String liker = s.nextLine();
 		// try to add like to the post
 		try {
+			// the author's followers change too, so the author is shown as well
+			String author = net.getPost(pid).getAuthor();
 			net.likePost(pid, liker);
+			changed.add(liker);
+			changed.add(author);
 
 		} catch (Exception e) {
 			System.out.println("Cannot add like the post with pid " + pid + ": caught exception\n\t" + e);
@@ -0,0 +1,15 @@
+/* sottoclasse di Exception che implementa l'eccezione di riga non valida in un file di post */
+class MalformedPostException extends Exception {
+    // numero (da 1) della riga non valida
+    private final long line;
+
+    MalformedPostException(long line, String reason) {
+        super("Riga " + line + ": " + reason);
+        this.line = line;
+    }
+
+    /* ritorna il numero della riga non valida */
+    long getLine() {
+        return this.line;
+    }
+};
@@ -1,9 +1,14 @@
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 class ModeratedSocialNetwork extends SocialNetwork {
     /*
@@ -17,6 +22,8 @@ class ModeratedSocialNetwork extends SocialNetwork {
     private Set<Integer> reported;
     // creo una hashtable statica da usare come dizionario per le parole offensive
     private static Hashtable<Integer, String> badwords = new Hashtable<Integer, String>();
+    // automa costruito sulle parole offensive, per cercarle tutte con una sola scansione del testo
+    private static WordMatcher badwordMatcher;
 
     // blocco static per inizializzare il dizionario
     static {
@@ -33,6 +40,7 @@ class ModeratedSocialNetwork extends SocialNetwork {
             badwords.put(word.hashCode(), word);
         }
         s.close();
+        badwordMatcher = new WordMatcher(new ArrayList<String>(badwords.values()));
     }
 
     /*
@@ -44,7 +52,7 @@ class ModeratedSocialNetwork extends SocialNetwork {
     */
     public ModeratedSocialNetwork() {
         super();
-        this.reported = new HashSet<Integer>();
+        this.reported = ConcurrentHashMap.newKeySet();
     }
 
     /*
@@ -55,54 +63,131 @@ class ModeratedSocialNetwork extends SocialNetwork {
     @modifies:  this
     @throws:    NullPointerException (unchecked)
     @effects:   Crea la rete sociale moderata (SocialNetwork(ps), {})
+                e segnala i post offensivi tra quelli inseriti
     */
     public ModeratedSocialNetwork(List<Post> pList) throws NullPointerException {
         super(pList); // solleva NullPointerException se pList == null
-        this.reported = new HashSet<Integer>();
-        for (Post p : pList) {
-            for (String w : p.getText().split(" ")) {
-                if (badwords.get(w.hashCode()) != null) {
-                    reported.add(p.getId());
-                }
+        this.reported = ConcurrentHashMap.newKeySet();
+        moderate(ForkJoinPool.commonPool());
+    }
+
+    /*
+    Come il precedente, ma costruisce la rete e cerca i post offensivi con
+    parallelism thread (vedi SocialNetwork(List, int))
+
+    @requires:  pList != null && parallelism >= 1
+    @throws:    Se pList == null solleva NullPointerException
+                Se parallelism < 1 solleva IllegalArgumentException
+    @modifies:  this
+    @effects:   Crea la stessa rete moderata di ModeratedSocialNetwork(pList)
+    */
+    public ModeratedSocialNetwork(List<Post> pList, int parallelism)
+            throws NullPointerException, IllegalArgumentException {
+        super(pList, parallelism);
+        this.reported = ConcurrentHashMap.newKeySet();
+        if (parallelism == 1) {
+            for (Post p : getPosts()) {
+                onAdd(p);
             }
+        } else {
+            moderate(pool(parallelism));
         }
     }
 
+    /*
+    Segnala i post offensivi di this, dividendoli tra i thread di pool: ogni
+    thread scandisce i testi della sua parte e aggiunge gli id a reported,
+    che è un Set concorrente
+
+    @requires:  pool != null && this non è ancora visibile ad altri thread
+    @modifies:  this
+    @effects:   Esegue onAdd(p) per ogni p ∊ getPosts()
+    */
+    private void moderate(ForkJoinPool pool) {
+        List<Post> ps = getPosts();
+        parallelFor(pool, ps.size(), i -> onAdd(ps.get(i)));
+    }
+
+    /*
+    Il testo viene scandito una sola volta dall'automa delle parole offensive,
+    invece di cercare nel dizionario ogni parola di p.getText().split(" ")
+
+    @requires:  p != null
+    @throws:    Se p == null solleva NullPointerException
+    @effects:   Ritorna true se e solo se
+                ∃ i. i ∊ badwords.values() && i ∊ p.getText().split(" ")
+    */
+    private static boolean isOffensive(Post p) throws NullPointerException {
+        return badwordMatcher.containsWord(p.getText(), ' ');
+    }
+
     /**
-    Sovrascrivo addPost()
-    @requires:  true
-    @throws:    DuplicatePostException, NullPointerException 
-                se lo fa il corrispondente metodo della superclasse
+    Sovrascrivo onAdd(), invocato da addPost() dopo aver aggiunto il post alla rete
+    e prima di rilasciare i lock: così un rmPost concorrente dello stesso post
+    non può lasciare in reported un id non più presente
+    @requires:  p != null
     @modifies:  this
-    @effects:   Esegue super.addPost(p) e poi se 
+    @effects:   Se 
                 (∃ i. i ∊ badwords.values() && p.getText() contiene la parola i)
                 esegue reported = reported U {p.getId()}
     */
-    public void addPost(Post p) throws DuplicatePostException, NullPointerException {
-        super.addPost(p); // prima aggiungo il post alla rete
-        for (String w : p.getText().split(" ")) {
-            if (badwords.get(w.hashCode()) != null) {
-                reported.add(p.getId());
-            }
+    protected void onAdd(Post p) {
+        if (isOffensive(p)) {
+            reported.add(p.getIntId());
         }
     }
 
     /**
-    Sovrascrivo addPost()
-    @requires:  true
-    @throws:    NoSuchPostException, NullPointerException 
-                se lo fa il corrispondente metodo della superclasse
+    Sovrascrivo onRemove(), invocato da rmPost() dopo aver rimosso il post dalla rete
+    @requires:  p != null
     @modifies:  this
-    @effects:   Esegue super.rmPost(p) e poi se 
-                reported.contains(pid)
+    @effects:   Se 
+                reported.contains(p.getId())
                 esegue reported = reported - {p.getId()}
     */
-    public void rmPost(Integer pid) throws NoSuchPostException, NullPointerException {
-        super.rmPost(pid); // prima rimuovo il post dalla rete
-        if (this.reported.contains(pid)) {
-            // lo rimuovo dai segnalati
-            this.reported.remove(pid);
-        }
+    protected void onRemove(Post p) {
+        // lo rimuovo dai segnalati
+        this.reported.remove(p.getIntId());
+    }
+
+    /**
+    Sovrascrivo snapshotMark(), invocato da save(): il segno di un post salvato
+    indica se è segnalato, così load() non deve cercare di nuovo le parole offensive
+    @requires:  p != null
+    @effects:   Ritorna reported.contains(p.getId())
+    */
+    protected Boolean snapshotMark(Post p) {
+        return this.reported.contains(p.getIntId());
+    }
+
+    /**
+    Sovrascrivo onRestore(), invocato da load() per ogni post ricaricato
+    @requires:  p != null
+    @modifies:  this
+    @effects:   Se mark == null (rete salvata da un SocialNetwork non moderato) esegue onAdd(p),
+                altrimenti se mark esegue reported = reported U {p.getId()}
+    */
+    protected void onRestore(Post p, Boolean mark) {
+        if (mark == null)
+            onAdd(p);
+        else if (mark)
+            this.reported.add(p.getIntId());
+    }
+
+    /*
+    Come SocialNetwork.load, ma ricarica anche i post segnalati
+
+    @requires:  file != null
+    @throws:    Se file == null solleva NullPointerException
+                Se il file non può essere letto o non è stato scritto da save solleva IOException
+    @effects:   Ritorna una nuova rete moderata uguale a quella salvata nel file, con gli
+                stessi post segnalati (se la rete salvata non era moderata, i post
+                offensivi vengono cercati di nuovo)
+    */
+    public static ModeratedSocialNetwork load(Path file) throws NullPointerException, IOException {
+        ModeratedSocialNetwork net = new ModeratedSocialNetwork();
+        net.restore(file);
+        return net;
     }
 
     /**
@@ -0,0 +1,505 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+public class MutationLog implements Closeable {
+    /*
+    @overview:  MutationLog è un tipo di dato astratto modificabile che rappresenta un
+                registro, in un file in sola aggiunta, delle modifiche di una rete sociale
+                (vedi SocialNetwork.setLog): [m_1, ..., m_n] dove ogni m_i è
+                    (ADD, seq, post)    un post inserito con numero d'ordine seq
+                    (LIKE, pid, liker)  un like nuovo al post pid
+                    (RM, pid)           la rimozione del post pid
+                Le modifiche vengono accodate in memoria (pochi microsecondi, tenendo
+                un lock solo per copiare i byte) e un thread di scrittura le scrive nel
+                file e lo sincronizza sul disco a gruppi, con una sola force() per tutte
+                le modifiche accodate nel frattempo:
+                    ASYNC   le modifiche non attendono la scrittura: quelle degli ultimi
+                            interval millisecondi possono andare perse
+                    GROUP   ogni operazione della rete attende, dopo aver rilasciato i
+                            propri lock, che la sua modifica sia sul disco; le operazioni
+                            concorrenti condividono la stessa force()
+                Ogni modifica nel file è preceduta dalla sua lunghezza e dal suo CRC32,
+                così una scrittura interrotta alla fine del file viene riconosciuta e
+                ignorata da replay.
+                Elemento tipico: (file, [m_1, ..., m_n], durable = k) con 0 <= k <= n,
+                dove m_1, ..., m_k sono già sul disco
+    */
+
+    /* garanzia di durabilità di una modifica al ritorno dall'operazione che l'ha prodotta */
+    public enum Durability {
+        ASYNC, GROUP
+    }
+
+    /* tipi di modifica */
+    private static final byte ADD = 'A';
+    private static final byte LIKE = 'L';
+    private static final byte RM = 'R';
+
+    /* variabili d'istanza (private) */
+    private final FileChannel out;
+    private final Durability durability;
+    private final long interval;
+    // modifiche accodate e non ancora passate al thread di scrittura
+    private ByteBuffer pending;
+    // buffer scritto dal thread di scrittura, scambiato con pending ad ogni gruppo
+    private ByteBuffer writing;
+    // numero di modifiche accodate / già sul disco
+    private long appended;
+    private long durable;
+    // numero di modifiche che qualcuno attende siano sul disco (vedi await)
+    private long wanted;
+    // numero di force() eseguite
+    private long syncs;
+    private boolean closed;
+    // errore del thread di scrittura: le operazioni successive lo rilanciano
+    private IOException failure;
+    private final Thread writer;
+    // tenuto dal thread di scrittura mentre scrive, e da truncate
+    private final Object io;
+    // numero dell'ultima modifica accodata dal thread corrente, e buffer in cui la codifica
+    private final ThreadLocal<long[]> last;
+    private final ThreadLocal<ByteBuffer> scratch;
+
+    /*
+    Funzione di astrazione
+    AF(x) = (file aperto da x.out, [modifiche nel file seguite da quelle in x.writing
+             e in x.pending], durable = x.durable)
+
+    Invariante di rappresentazione
+    IR(x) = x.out != null && x.durability != null && x.interval > 0
+            && x.pending != null && x.writing != null && x.io != null
+            && 0 <= x.durable <= x.appended && x.syncs >= 0
+            && x.writing e x.pending contengono, in quest'ordine, le modifiche non ancora
+               sul disco, ciascuna come (lunghezza, CRC32, byte)
+    */
+
+    /*
+    Apre il registro in fondo al file (creandolo se non esiste). Se il file termina
+    con una modifica scritta solo in parte, questa viene tolta, così le nuove
+    modifiche sono leggibili da replay
+
+    @requires:  file != null && durability != null && interval > 0
+    @throws:    Se file == null o durability == null solleva NullPointerException
+                Se interval <= 0 solleva IllegalArgumentException
+                Se il file non può essere aperto solleva IOException
+    @effects:   Crea il registro del file, con le modifiche già presenti e durable = n,
+                e avvia il thread che lo scrive ogni interval millisecondi (o prima,
+                con GROUP, quando un'operazione attende)
+    */
+    public MutationLog(Path file, Durability durability, long interval)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        if (file == null || durability == null)
+            throw new NullPointerException();
+        if (interval <= 0)
+            throw new IllegalArgumentException();
+        long valid = Files.exists(file) ? scan(file, null) : 0;
+        this.out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.out.truncate(valid);
+        this.out.position(valid);
+        this.durability = durability;
+        this.interval = interval;
+        this.pending = ByteBuffer.allocate(1 << 16);
+        this.writing = ByteBuffer.allocate(1 << 16);
+        this.io = new Object();
+        this.last = ThreadLocal.withInitial(() -> new long[1]);
+        this.scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024));
+        this.writer = new Thread(this::run, "MutationLog " + file.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /*
+    Corpo del thread di scrittura: attende che ci siano modifiche (con ASYNC al più
+    interval millisecondi, o meno se qualcuno chiama sync), poi scrive e sincronizza
+    sul disco tutte quelle accodate nel frattempo con una sola force()
+    */
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (this.durability == Durability.ASYNC && !this.closed && this.wanted <= this.durable)
+                        wait(this.interval);
+                    while (!this.closed && this.appended == this.durable)
+                        wait(this.durability == Durability.ASYNC ? this.interval : 0);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (this.closed && this.appended == this.durable)
+                    return;
+            }
+            long upTo;
+            synchronized (this.io) {
+                synchronized (this) {
+                    ByteBuffer t = this.writing;
+                    this.writing = this.pending;
+                    this.pending = t;
+                    this.pending.clear();
+                    upTo = this.appended;
+                }
+                try {
+                    this.writing.flip();
+                    while (this.writing.hasRemaining())
+                        this.out.write(this.writing);
+                    this.out.force(false);
+                } catch (IOException ex) {
+                    synchronized (this) {
+                        this.failure = ex;
+                        this.closed = true;
+                        notifyAll();
+                    }
+                    return;
+                }
+            }
+            synchronized (this) {
+                this.durable = Math.max(this.durable, upTo);
+                this.syncs++;
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+    Accoda la modifica codificata in b (dalla posizione 0 alla posizione corrente).
+    La modifica è già stata applicata alla rete, quindi append non solleva eccezioni:
+    se nel frattempo il registro è stato chiuso o il thread di scrittura ha fallito
+    (dopo ensureOpen) la modifica viene scartata, e nel secondo caso commit del
+    thread corrente segnala che non è sul disco
+    */
+    private void append(ByteBuffer b) {
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        long n;
+        synchronized (this) {
+            if (this.failure != null || this.closed) {
+                if (this.failure != null)
+                    this.last.get()[0] = Long.MAX_VALUE;
+                return;
+            }
+            if (this.pending.remaining() < b.position() + 8) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * this.pending.capacity(),
+                        this.pending.position() + b.position() + 8));
+                this.pending.flip();
+                bigger.put(this.pending);
+                this.pending = bigger;
+            }
+            this.pending.putInt(b.position());
+            this.pending.putInt((int) crc.getValue());
+            this.pending.put(b.array(), 0, b.position());
+            n = ++this.appended;
+            // il thread di scrittura attende solo quando non ci sono modifiche da scrivere
+            if (this.durability == Durability.GROUP && n == this.durable + 1)
+                notifyAll();
+        }
+        this.last.get()[0] = n;
+    }
+
+    /*
+    Invocato dalla rete prima di modificare i propri dati, così un registro che non
+    può più accettare modifiche fa fallire l'operazione senza che sia stata applicata
+
+    @requires:  true
+    @throws:    Se il thread di scrittura ha fallito solleva UncheckedIOException
+                Se il registro è chiuso solleva IllegalStateException
+    @effects:   Non fa nulla
+    */
+    synchronized void ensureOpen() throws UncheckedIOException, IllegalStateException {
+        check();
+    }
+
+    // rilancia l'errore del thread di scrittura, se c'è stato
+    private void check() {
+        if (this.failure != null)
+            throw new UncheckedIOException(this.failure);
+        if (this.closed)
+            throw new IllegalStateException("Il registro è chiuso");
+    }
+
+    // buffer del thread corrente, vuoto e con almeno n byte liberi
+    private ByteBuffer scratch(int n) {
+        ByteBuffer b = this.scratch.get();
+        if (b.capacity() < n) {
+            b = ByteBuffer.allocate(Math.max(n, 2 * b.capacity()));
+            this.scratch.set(b);
+        }
+        b.clear();
+        return b;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+    I metodi log* sono invocati dopo aver applicato la modifica alla rete e non
+    sollevano eccezioni (vedi append): la rete chiama prima ensureOpen
+
+    @requires:  p != null && likes != null && il chiamante possiede la striscia del post p
+    @modifies:  this
+    @effects:   Accoda (ADD, seq, p con i like likes)
+    */
+    void logAdd(long seq, Post p, Set<String> likes) {
+        byte[] author = utf8(p.getAuthor());
+        byte[] text = utf8(p.getText());
+        // likes può essere una vista che cresce: la leggo una volta sola
+        String[] names = likes.toArray(new String[0]);
+        byte[][] ls = new byte[names.length][];
+        int size = 1 + 8 + 4 + 8 + 4 + author.length + 4 + text.length + 4;
+        for (int k = 0; k < names.length; k++) {
+            ls[k] = utf8(names[k]);
+            size += 4 + ls[k].length;
+        }
+        ByteBuffer b = scratch(size);
+        b.put(ADD).putLong(seq).putInt(p.getIntId()).putLong(p.getTime());
+        b.putInt(author.length).put(author).putInt(text.length).put(text).putInt(ls.length);
+        for (byte[] l : ls) {
+            b.putInt(l.length).put(l);
+        }
+        append(b);
+    }
+
+    /*
+    @requires:  liker != null && il chiamante possiede la striscia del post
+    @modifies:  this
+    @effects:   Accoda (LIKE, pid, liker)
+    */
+    void logLike(int pid, String liker) {
+        byte[] l = utf8(liker);
+        ByteBuffer b = scratch(1 + 4 + 4 + l.length);
+        b.put(LIKE).putInt(pid).putInt(l.length).put(l);
+        append(b);
+    }
+
+    /*
+    @requires:  il chiamante possiede la striscia del post
+    @modifies:  this
+    @effects:   Accoda (RM, pid)
+    */
+    void logRemove(int pid) {
+        ByteBuffer b = scratch(1 + 4);
+        b.put(RM).putInt(pid);
+        append(b);
+    }
+
+    /*
+    Invocato dalla rete al termine di un'operazione, dopo aver rilasciato i lock
+
+    @requires:  true
+    @throws:    Se il thread di scrittura ha fallito solleva UncheckedIOException: le
+                modifiche del thread corrente sono state applicate alla rete ma non
+                sono (tutte) sul disco
+    @effects:   Con GROUP attende che l'ultima modifica accodata dal thread corrente
+                sia sul disco; con ASYNC non fa nulla
+    */
+    void commit() throws UncheckedIOException {
+        if (this.durability == Durability.GROUP)
+            await(this.last.get()[0]);
+    }
+
+    // attende che le prime n modifiche siano sul disco
+    private synchronized void await(long n) throws UncheckedIOException {
+        boolean interrupted = false;
+        if (n > this.wanted) {
+            // sveglio il thread di scrittura (con ASYNC non aspetta la fine dell'intervallo)
+            this.wanted = n;
+            notifyAll();
+        }
+        while (this.durable < n) {
+            if (this.failure != null)
+                throw new UncheckedIOException(this.failure);
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /*
+    @requires:  true
+    @throws:    Se il thread di scrittura ha fallito solleva UncheckedIOException
+    @effects:   Attende che tutte le modifiche accodate finora siano sul disco (anche con ASYNC)
+    */
+    public void sync() throws UncheckedIOException {
+        long n;
+        synchronized (this) {
+            n = this.appended;
+        }
+        await(n);
+    }
+
+    /*
+    Svuota il registro: usato dalla rete dopo averne salvato lo stato (vedi
+    SocialNetwork.checkpoint), quando le modifiche registrate sono già nel file salvato
+
+    @requires:  il chiamante impedisce nuove modifiche fino al ritorno
+    @throws:    Se il file non può essere troncato solleva IOException
+    @modifies:  this
+    @effects:   Rende vuoti il file e la lista delle modifiche
+    */
+    void truncate() throws IOException {
+        synchronized (this.io) {
+            synchronized (this) {
+                check();
+                this.pending.clear();
+            }
+            this.out.truncate(0);
+            this.out.force(true);
+            synchronized (this) {
+                this.durable = this.appended;
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di force() eseguite dal thread di scrittura
+    */
+    public synchronized long syncs() {
+        return this.syncs;
+    }
+
+    /*
+    @requires:  true
+    @throws:    Se la scrittura delle ultime modifiche fallisce solleva IOException
+    @modifies:  this
+    @effects:   Scrive sul disco le modifiche accodate, ferma il thread di scrittura e
+                chiude il file
+    */
+    public void close() throws IOException {
+        synchronized (this) {
+            this.closed = true;
+            notifyAll();
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.out.close();
+        if (this.failure != null)
+            throw this.failure;
+    }
+
+    /*
+    Riapplica a net le modifiche del file, nell'ordine in cui sono state registrate.
+    Serve a ricostruire una rete dopo un riavvio, a partire dall'ultimo stato salvato
+    (ad esempio net = SocialNetwork.load(snapshot)). Le modifiche già contenute in net
+    (un post con lo stesso id o un like già presenti) vengono saltate, e i like e le
+    rimozioni di post non presenti (rimossi prima del salvataggio) non hanno effetto,
+    così il registro può essere riapplicato anche se non è stato svuotato dopo il
+    salvataggio, su uno stato salvato più recente delle sue modifiche.
+    L'allocatore degli id viene portato oltre gli id dei post riapplicati.
+    Una modifica scritta solo in parte alla fine del file viene ignorata
+
+    @requires:  file != null && net != null && net non ha un registro (vedi SocialNetwork.setLog)
+                && nessun altro thread sta usando net
+    @throws:    Se file == null o net == null solleva NullPointerException
+                Se net ha un registro solleva IllegalStateException
+                Se il file non può essere letto, o una modifica non è applicabile
+                (un like dell'autore del post) solleva IOException
+    @modifies:  net
+    @effects:   Applica a net le modifiche del file e ritorna il loro numero
+    */
+    public static long replay(Path file, SocialNetwork net)
+            throws NullPointerException, IllegalStateException, IOException {
+        if (file == null || net == null)
+            throw new NullPointerException();
+        if (net.hasLog())
+            throw new IllegalStateException("La rete ha già un registro");
+        long[] count = new long[1];
+        scan(file, b -> {
+            apply(b, net);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    /* azione eseguita su ogni modifica letta da scan */
+    private interface RecordAction {
+        void accept(ByteBuffer record) throws IOException;
+    }
+
+    // legge le modifiche complete del file, passandole ad action se != null; ritorna la lunghezza letta
+    private static long scan(Path file, RecordAction action) throws IOException {
+        long valid = 0;
+        try (InputStream is = Files.newInputStream(file);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(is, 1 << 16))) {
+            byte[] buf = new byte[1024];
+            CRC32 crc = new CRC32();
+            while (true) {
+                int len, sum;
+                try {
+                    len = in.readInt();
+                    sum = in.readInt();
+                    if (len <= 0)
+                        return valid;
+                    if (buf.length < len)
+                        buf = new byte[Math.max(len, 2 * buf.length)];
+                    in.readFully(buf, 0, len);
+                } catch (EOFException ex) {
+                    // fine del file, eventualmente a metà di una modifica
+                    return valid;
+                }
+                crc.reset();
+                crc.update(buf, 0, len);
+                if ((int) crc.getValue() != sum)
+                    return valid;
+                if (action != null)
+                    action.accept(ByteBuffer.wrap(buf, 0, len));
+                valid += 8 + len;
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer b) {
+        int n = b.getInt();
+        String s = new String(b.array(), b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+
+    // applica a net la modifica codificata in b
+    private static void apply(ByteBuffer b, SocialNetwork net) throws IOException {
+        try {
+            byte type = b.get();
+            if (type == ADD) {
+                long seq = b.getLong();
+                int id = b.getInt();
+                long time = b.getLong();
+                String author = readString(b);
+                String text = readString(b);
+                String[] likes = new String[b.getInt()];
+                for (int i = 0; i < likes.length; i++) {
+                    likes[i] = readString(b);
+                }
+                net.replayAdd(seq, new Post(id, author, text, time, Set.of(likes)));
+            } else if (type == LIKE) {
+                int pid = b.getInt();
+                net.replayLike(pid, readString(b));
+            } else if (type == RM) {
+                net.replayRemove(b.getInt());
+            } else {
+                throw new IOException("Tipo di modifica sconosciuto: " + type);
+            }
+        } catch (RuntimeException ex) {
+            // il CRC era corretto ma il contenuto no (ad esempio like ripetuti)
+            throw new IOException("Modifica non valida nel registro", ex);
+        }
+    }
+};
@@ -1,7 +1,7 @@
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Post {
     /*
@@ -10,29 +10,51 @@ public class Post {
                 globalmente è un tipo di dato modificabile.
                 Elemento tipico: (id, author, text, timestamp, likes)
                 dove likes = {like_1, ..., like_n}
+                Uno stesso post può ricevere like da più thread (vedi SocialNetwork.likePost):
+                addLike è synchronized. Finché i like sono pochi (al più SMALL) l'insieme
+                viene sostituito con una nuova copia compatta non modificabile, oltre
+                diventa un insieme concorrente modificato sul posto, così un post con
+                molti like non viene ricopiato ad ogni like. I metodi di lettura non
+                prendono lock e non allocano memoria.
     */
 
     /* variabili d'istanza (private) */
-    private Integer id;
-    private String author;
-    private String text;
-    private Date timestamp; // data e ora di pubblicazione del post
-    private Set<String> likes;
+    // id e timestamp sono memorizzati come primitivi: niente Integer né Date per ogni post
+    private final int id;
+    private final String author;
+    private final String text;
+    private final long timestamp; // data e ora di pubblicazione del post, in millisecondi dall'epoca
+    // fino a SMALL like è un insieme non modificabile, sostituito (mai modificato) da addLike:
+    // gli insiemi di Set.copyOf sono compatti (quello vuoto è condiviso da tutti i post,
+    // quelli con uno o due elementi non hanno array). Oltre è una vista non modificabile
+    // di shared, creata una volta sola
+    private volatile Set<String> likes;
+    // insieme concorrente dei like, null finché i like sono al più SMALL
+    private Set<String> shared;
+    // numero di like: poiché i like non vengono mai tolti fa anche da versione di likes
+    private volatile int likeCount;
+    // true se l'id è stato assegnato dall'allocatore, false se passato al costruttore
+    private final boolean generated;
 
-    /* variabile statica (privata) per generare id */
-    private static Random rng = new Random();
+    // oltre questo numero di like l'insieme non viene più ricopiato ad ogni like
+    private static final int SMALL = 8;
+
+    /* variabile statica (privata) per generare id: unica per costruzione e senza contesa tra thread */
+    private static volatile IdAllocator allocator = new BlockIdAllocator();
 
     /*
     Funzione di astrazione
-    AF(x) = (x.id, x.author, x.text, x.timestamp, x.likes)
+    AF(x) = (x.id, x.author, x.text, new Date(x.timestamp), x.likes)
 
     Invariante di rappresentazione
     IR(x) = x != null
-            && x.id != null
             && x.author != null
             && x.text != null
-            && x.timestamp != null
-            && x.likes != null
+            && x.likes != null && x.likes è non modificabile
+            && x.likeCount == x.likes.size()
+            && (x.shared == null ? x.likes.size() <= SMALL
+                                 : x.likes è una vista di x.shared && x.shared.size() > SMALL)
+            && (x.generated ==> x.id è stato ritornato da Post.allocator.next())
             && ∀ i.
                 0 <= i < x.likes.size()
                 && x.likes.get(i) != null
@@ -57,24 +79,26 @@ public class Post {
     @throws:    Se almeno uno dei parametri è null allora solleva NullPointerException.
                 Se text.length() > 140 allora solleva TextOverflowException.
     @modifies:  this
-    @effects:   Crea un'istanza di Post con id >= 0 generato casualmente
+    @effects:   Crea un'istanza di Post con id >= 0 assegnato dall'allocatore
+                (diverso da quello di ogni altro post creato con questo costruttore)
                 e nessun like (Set vuoto), ovvero:
 
-                (rng.nextInt(), author, text, timestamp, {})
+                (allocator.next(), author, text, timestamp, {})
     */
     public Post(String author, String text, Date timestamp) throws TextOverflowException, NullPointerException {
         if (author == null || text == null || timestamp == null) {
             throw new NullPointerException();
         }
         // genero un id con valori in [0, Integer.MAX_VALUE - 1]
-        this.id = rng.nextInt(Integer.MAX_VALUE - 1);
+        this.id = allocator.next();
         if (text.length() > 140) {
             throw new TextOverflowException(this.id);
         }
         this.author = author;
         this.text = text;
-        this.timestamp = timestamp;
-        this.likes = new HashSet<String>();
+        this.timestamp = timestamp.getTime();
+        this.likes = Set.of();
+        this.generated = true;
     }
 
     /*
@@ -90,10 +114,10 @@ public class Post {
     @throws:    Se almeno uno dei parametri è null allora solleva NullPointerException.
                 Se text.length() > 140 allora solleva TextOverflowException.
     @modifies:  this
-    @effects:   Crea un'istanza di Post con id >= 0 generato casualmente
+    @effects:   Crea un'istanza di Post con l'id passato come parametro
                 e nessun like (Set vuoto), ovvero:
 
-                (rng.nextInt(), author, text, timestamp, {})
+                (id, author, text, timestamp, {})
     */
     public Post(Integer id, String author, String text, Date timestamp)
     throws TextOverflowException, NullPointerException {
@@ -103,43 +127,155 @@ public class Post {
         if(text.length() > 140) {
             throw new TextOverflowException(id);
         }
+        this.id = id;
+        this.author = author;
+        this.text = text;
+        this.timestamp = timestamp.getTime();
+        this.likes = Set.of();
+        this.generated = false;
+    }
+
+    /*
+    Ricostruisce un post salvato in un file (vedi SocialNetwork.load): i campi non
+    vengono controllati, perché provengono da un post che rispettava IR_Post, e l'id
+    è considerato non assegnato dall'allocatore (il chiamante deve segnarlo come
+    assegnato con reserveId, altrimenti l'allocatore potrebbe assegnarlo di nuovo)
+
+    @requires:  author != null && text != null && likes != null && likes non modificabile
+                && (id, author, text, new Date(timestamp), likes) rispetta IR_Post
+    @effects:   Crea il post (id, author, text, new Date(timestamp), likes)
+    */
+    Post(int id, String author, String text, long timestamp, Set<String> likes) {
         this.id = id;
         this.author = author;
         this.text = text;
         this.timestamp = timestamp;
-        this.likes = new HashSet<String>();
+        if (likes.size() <= SMALL) {
+            this.likes = likes;
+        } else {
+            this.shared = ConcurrentHashMap.newKeySet(likes.size());
+            this.shared.addAll(likes);
+            this.likes = Collections.unmodifiableSet(this.shared);
+        }
+        this.likeCount = likes.size();
+        this.generated = false;
+    }
+
+    /*
+    Sostituisce l'allocatore usato dal costruttore senza id: serve ad esempio
+    per scegliere la dimensione dei blocchi o una diversa strategia
+
+    @requires:  a != null && a non ritorna id già assegnati dall'allocatore corrente
+    @throws:    Se a == null solleva NullPointerException
+    @modifies:  Post.allocator
+    @effects:   Post.allocator = a
+    */
+    public static void setIdAllocator(IdAllocator a) throws NullPointerException {
+        if (a == null)
+            throw new NullPointerException();
+        allocator = a;
+    }
+
+    /*
+    Usato da SocialNetwork quando ricarica post creati in un'altra esecuzione
+
+    @requires:  id >= 0
+    @modifies:  Post.allocator
+    @effects:   Esegue allocator.reserve(id): il costruttore senza id non assegnerà
+                più id <= id
+    */
+    static void reserveId(int id) {
+        allocator.reserve(id);
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna true se l'id di this è stato assegnato dall'allocatore
+                (e quindi nessun altro post creato allo stesso modo ha lo stesso id)
+    */
+    boolean hasGeneratedId() {
+        return this.generated;
     }
 
     /*
+    L'id è memorizzato come int: getId crea un Integer ad ogni chiamata (oltre i
+    valori in cache), quindi all'interno del progetto si usa getIntId
+
     @requires:  true
-    @effects:   ritorna una copia (shallow) dell'id
+    @effects:   ritorna l'id
     */
     public Integer getId() {
-        return (Integer) this.id.intValue();
+        return this.id;
+    }
+
+    /*
+    Come getId, ma senza allocare memoria
+
+    @requires:  true
+    @effects:   ritorna l'id come int
+    */
+    public int getIntId() {
+        return this.id;
     }
 
     /*
     @requires:  true
-    @effects:   ritorna una copia (shallow) di author
+    @effects:   ritorna timestamp in millisecondi dall'epoca (1 gennaio 1970 UTC)
+    */
+    public long getTime() {
+        return this.timestamp;
+    }
+
+    /*
+    String è immutabile, quindi getAuthor e getText ritornano direttamente i
+    campi senza copiarli
+
+    @requires:  true
+    @effects:   ritorna author
     */
     public String getAuthor() {
-        return new String(this.author);
+        return this.author;
     }
 
     /*
     @requires:  true
-    @effects:   ritorna una copia (shallow) di text
+    @effects:   ritorna text
     */
     public String getText() {
-        return new String(this.text);
+        return this.text;
     }
 
     /*
+    Non copia nulla. Finché i like sono al più SMALL l'insieme ritornato è
+    un'istantanea (i like aggiunti dopo non vi compaiono), oltre è una vista
+    che riflette i like aggiunti dopo e che si può scorrere mentre altri thread
+    aggiungono like, senza ConcurrentModificationException. Per sapere se
+    l'insieme è cambiato basta confrontare likeCount() prima e dopo; chi deve
+    leggerlo più volte (ad esempio size() e poi gli elementi) deve prima copiarlo
+    con toArray, che lo legge una volta sola
+
     @requires:  true
-    @effects:   ritorna una copia del set likes di this (non modificabile)
+    @effects:   ritorna il set likes di this (non modificabile)
     */
     public Set<String> getLikes() {
-        return Set.copyOf(this.likes);
+        return this.likes;
+    }
+
+    /*
+    @requires:  true
+    @effects:   ritorna #likes
+    */
+    public int likeCount() {
+        return this.likeCount;
+    }
+
+    /*
+    @requires:  user != null
+    @throws:    Se user == null solleva NullPointerException
+    @effects:   ritorna true se e solo se user ∊ likes
+    */
+    public boolean isLikedBy(String user) throws NullPointerException {
+        return this.likes.contains(user);
     }
 
     /* metodi modificatori */
@@ -151,14 +287,34 @@ public class Post {
     @modifies:  this
     @effects:   Esegue likes = likes U {follower}
                 (come da definizione di insieme non ho duplicati)
+                e ritorna true se e solo se follower ∉ likes prima della chiamata
     */
-    public void addLike(String follower) throws NullPointerException, SelfLikeException {
+    public synchronized boolean addLike(String follower) throws NullPointerException, SelfLikeException {
         if (follower == null)
             throw new NullPointerException();
         // l'autore non può comparire nel Set dei like
         if (this.author.equals(follower))
             throw new SelfLikeException();
-        this.likes.add(follower); // aggiungo l'utente al Set di like
+        if (this.likes.contains(follower))
+            return false;
+        int n = this.likeCount;
+        if (this.shared != null) {
+            // insieme grande: lo modifico sul posto, costo O(1)
+            this.shared.add(follower);
+        } else if (n < SMALL) {
+            // insieme piccolo: creo una nuova copia compatta con l'utente aggiunto,
+            // così chi ha letto la precedente non la vede cambiare
+            String[] updated = this.likes.toArray(new String[n + 1]);
+            updated[n] = follower;
+            this.likes = Set.of(updated);
+        } else {
+            this.shared = ConcurrentHashMap.newKeySet(2 * SMALL);
+            this.shared.addAll(this.likes);
+            this.shared.add(follower);
+            this.likes = Collections.unmodifiableSet(this.shared);
+        }
+        this.likeCount = n + 1;
+        return true;
     }
 
     /*
@@ -179,7 +335,7 @@ public class Post {
                     + this.id + ", "
                     + this.author + ", \""
                     + cut_text + "\", "
-                    + this.timestamp.toString()
+                    + new Date(this.timestamp).toString()
                     + ", " + this.likes.toString()
                     + ")\n";
         return s;
@@ -194,6 +350,6 @@ public class Post {
     public boolean equals(Post other) {
         if (other == null)
             return false;
-        return this.id.equals(other.getId());
+        return this.id == other.id;
     }
 };
@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PostColumns {
+    /*
+    @overview:  PostColumns è un tipo di dato astratto non modificabile che rappresenta
+                una lista di post [post_0, ..., post_n-1] memorizzata per colonne
+                (un array per ogni campo) invece che come lista di oggetti Post.
+                Gli utenti sono codificati con interi tramite un dizionario locale e i
+                like di tutti i post sono concatenati in un unico array, quindi le
+                analisi che scorrono tutti i post (followers, following, autori) leggono
+                array contigui senza seguire un riferimento per ogni post e per ogni campo.
+                I Post vengono ricostruiti solo quando richiesti (vedi post(i) e writtenBy).
+                Elemento tipico: [(id_i, author_i, text_i, timestamp_i, likes_i) : 0 <= i < n]
+    */
+
+    /* variabili d'istanza (private) */
+    private final int[] ids;
+    // intero dell'autore nel dizionario names
+    private final int[] authors;
+    // timestamp in millisecondi dall'epoca
+    private final long[] times;
+    private final String[] texts;
+    // i like del post i sono likers[likeStart[i]], ..., likers[likeStart[i + 1] - 1]
+    private final int[] likeStart;
+    private final int[] likers;
+    // dizionario degli utenti: names[c] è l'utente con intero c e codes.get(names[c]) == c
+    private final String[] names;
+    private final Map<String, Integer> codes;
+
+    /*
+    Funzione di astrazione
+    AF(x) = [(x.ids[i], x.names[x.authors[i]], x.texts[i], new Date(x.times[i]),
+                {x.names[x.likers[k]] : x.likeStart[i] <= k < x.likeStart[i + 1]})
+             : 0 <= i < x.ids.length]
+
+    Invariante di rappresentazione
+    IR(x) = tutti i campi != null
+            && x.ids.length == x.authors.length == x.times.length == x.texts.length
+            && x.likeStart.length == x.ids.length + 1
+            && x.likeStart[0] == 0 && x.likeStart[x.ids.length] == x.likers.length
+            && ∀ i. 0 <= i < x.ids.length ==> x.likeStart[i] <= x.likeStart[i + 1]
+            && ∀ c. 0 <= c < x.names.length ==> x.codes.get(x.names[c]) == c
+            && x.codes.size() == x.names.length
+            && ogni elemento di x.authors e di x.likers è in [0, x.names.length)
+            && IR_Post di ogni post di AF(x)
+    */
+
+    /*
+    @requires:  ps != null && (∀ i. 0 <= i < ps.size() && ps.get(i) != null)
+    @throws:    Se ps == null o contiene null solleva NullPointerException
+    @effects:   Crea la rappresentazione per colonne di ps, con i like di ogni post
+                al momento della chiamata
+    */
+    public PostColumns(List<Post> ps) throws NullPointerException {
+        int n = ps.size();
+        this.ids = new int[n];
+        this.authors = new int[n];
+        this.times = new long[n];
+        this.texts = new String[n];
+        this.likeStart = new int[n + 1];
+        this.codes = new HashMap<String, Integer>();
+        List<String> dict = new ArrayList<String>();
+        // prima passata: copio i like (l'insieme di un post con molti like può crescere
+        // mentre lo leggo, vedi Post.getLikes) e li conto per dimensionare l'array piatto
+        List<String[]> likes = new ArrayList<String[]>(n);
+        int total = 0;
+        for (Post p : ps) {
+            String[] l = p.getLikes().toArray(new String[0]);
+            likes.add(l);
+            total += l.length;
+        }
+        this.likers = new int[total];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            Post p = ps.get(i);
+            this.ids[i] = p.getIntId();
+            this.authors[i] = code(p.getAuthor(), dict);
+            this.times[i] = p.getTime();
+            this.texts[i] = p.getText();
+            this.likeStart[i] = k;
+            for (String l : likes.get(i)) {
+                this.likers[k++] = code(l, dict);
+            }
+        }
+        this.likeStart[n] = k;
+        this.names = dict.toArray(new String[0]);
+    }
+
+    // intero di name nel dizionario, aggiungendolo se non è presente
+    private int code(String name, List<String> dict) {
+        Integer c = this.codes.get(name);
+        if (c == null) {
+            c = dict.size();
+            dict.add(name);
+            this.codes.put(name, c);
+        }
+        return c;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di post di this
+    */
+    public int size() {
+        return this.ids.length;
+    }
+
+    /*
+    @requires:  0 <= i < size()
+    @throws:    Se i non è un indice valido solleva IndexOutOfBoundsException
+    @effects:   Ritorna l'id dell'i-esimo post senza ricostruirlo
+    */
+    public int id(int i) throws IndexOutOfBoundsException {
+        return this.ids[i];
+    }
+
+    /*
+    Ricostruisce l'i-esimo post: il risultato è un nuovo oggetto Post, con
+    gli stessi campi e like di quello da cui è stato creato this
+
+    @requires:  0 <= i < size()
+    @throws:    Se i non è un indice valido solleva IndexOutOfBoundsException
+    @effects:   Ritorna un nuovo Post p con AF_Post(p) = AF(this).get(i)
+    */
+    public Post post(int i) throws IndexOutOfBoundsException {
+        try {
+            Post p = new Post(this.ids[i], this.names[this.authors[i]], this.texts[i], new Date(this.times[i]));
+            for (int k = this.likeStart[i]; k < this.likeStart[i + 1]; k++) {
+                p.addLike(this.names[this.likers[k]]);
+            }
+            return p;
+        } catch (TextOverflowException | SelfLikeException ex) {
+            // impossibile: i campi provengono da post che rispettavano IR_Post
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna {author_i : 0 <= i < size()}
+    */
+    public Set<String> mentionedUsers() {
+        // un autore per ogni intero che compare in authors
+        boolean[] seen = new boolean[this.names.length];
+        Set<String> res = new HashSet<String>();
+        for (int a : this.authors) {
+            if (!seen[a]) {
+                seen[a] = true;
+                res.add(this.names[a]);
+            }
+        }
+        return res;
+    }
+
+    /*
+    Equivale a SocialNetwork.guessFollowing sulla lista da cui è stato creato this
+
+    @requires:  true
+    @effects:   Ritorna la funzione che ∀ a ∊ mentionedUsers() mappa
+                a → {l : ∃ i. author_i.equals(a) && l ∊ likes_i}
+    */
+    public Map<String, Set<String>> followers() {
+        IntSet[] in = new IntSet[this.names.length];
+        for (int i = 0; i < this.ids.length; i++) {
+            int a = this.authors[i];
+            if (in[a] == null)
+                in[a] = new IntSet();
+            for (int k = this.likeStart[i]; k < this.likeStart[i + 1]; k++) {
+                in[a].add(this.likers[k]);
+            }
+        }
+        return decode(in);
+    }
+
+    /*
+    Equivale a SocialNetwork.guessFollowers sulla lista da cui è stato creato this
+
+    @requires:  true
+    @effects:   Ritorna la funzione che ∀ l ∊ {likes_i : 0 <= i < size()} mappa
+                l → {author_i : 0 <= i < size() && l ∊ likes_i}
+    */
+    public Map<String, Set<String>> following() {
+        IntSet[] out = new IntSet[this.names.length];
+        for (int i = 0; i < this.ids.length; i++) {
+            for (int k = this.likeStart[i]; k < this.likeStart[i + 1]; k++) {
+                int l = this.likers[k];
+                if (out[l] == null)
+                    out[l] = new IntSet();
+                out[l].add(this.authors[i]);
+            }
+        }
+        return decode(out);
+    }
+
+    // converte gli insiemi di interi (null = chiave assente) in una mappa di nomi
+    private Map<String, Set<String>> decode(IntSet[] sets) {
+        Map<String, Set<String>> m = new HashMap<String, Set<String>>();
+        for (int c = 0; c < sets.length; c++) {
+            if (sets[c] != null) {
+                Set<String> users = new HashSet<String>();
+                for (int u : sets[c].toArray()) {
+                    users.add(this.names[u]);
+                }
+                m.put(this.names[c], users);
+            }
+        }
+        return m;
+    }
+
+    /*
+    Scorre la sola colonna degli autori e ricostruisce i post trovati
+
+    @requires:  username != null
+    @throws:    Se username == null solleva NullPointerException
+    @effects:   Ritorna [post(i) : 0 <= i < size() && author_i.equals(username)]
+    */
+    public List<Post> writtenBy(String username) throws NullPointerException {
+        if (username == null)
+            throw new NullPointerException();
+        List<Post> res = new ArrayList<Post>();
+        Integer code = this.codes.get(username);
+        if (code == null)
+            return res;
+        int c = code;
+        for (int i = 0; i < this.authors.length; i++) {
+            if (this.authors[i] == c)
+                res.add(post(i));
+        }
+        return res;
+    }
+};
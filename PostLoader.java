@@ -0,0 +1,270 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class PostLoader implements Closeable {
+    /*
+    @overview:  PostLoader è un tipo di dato astratto modificabile che rappresenta un
+                lettore sequenziale di un file di post nel formato dei file di test:
+                    una sezione di post, ciascuno su tre righe (autore, testo e data
+                    nel formato dd-MM-uuuu HH:mm), terminata dalla riga "fine"
+                    seguita da altre sezioni di una voce per riga (ad esempio gli
+                    utenti che mettono like, terminati da "fine", e le parole da cercare)
+                Il file viene letto a blocchi da un canale NIO e decodificato in UTF-8
+                una riga alla volta, quindi la memoria usata non dipende dalla
+                lunghezza del file. Le righe non valide sono segnalate con il loro numero.
+                Elemento tipico: (righe = [r_1, ..., r_n], letta = k) con 0 <= k <= n,
+                dove le righe r_1, ..., r_k sono già state lette
+    */
+
+    /* variabili d'istanza (private) */
+    private final ReadableByteChannel in;
+    private final CharsetDecoder decoder;
+    // byte letti dal canale e non ancora decodificati
+    private final ByteBuffer bytes;
+    // caratteri decodificati e non ancora consumati (in modalità lettura)
+    private final CharBuffer chars;
+    // riga in costruzione, riusata da una riga all'altra
+    private final StringBuilder line;
+    // il canale è esaurito / il decodificatore ha restituito gli ultimi caratteri
+    private boolean eof;
+    private boolean flushed;
+    // numero di righe lette
+    private long lineNumber;
+
+    // il formato è immutabile e sicuro rispetto ai thread: ne basta uno per tutti i lettori.
+    // STRICT rifiuta le date inesistenti (es. 19-13-2020) invece di correggerle
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd-MM-uuuu HH:mm")
+            .withResolverStyle(ResolverStyle.STRICT);
+    private static final String END = "fine";
+
+    /*
+    Funzione di astrazione
+    AF(x) = (righe = righe già lette seguite da quelle ancora nel canale x.in,
+             letta = x.lineNumber)
+
+    Invariante di rappresentazione
+    IR(x) = x.in != null && x.decoder != null && x.bytes != null && x.chars != null
+            && x.line != null && x.lineNumber >= 0 && (x.flushed ==> x.eof)
+    */
+
+    /*
+    @requires:  in != null
+    @throws:    Se in == null solleva NullPointerException
+    @effects:   Crea un lettore delle righe di in, posizionato sulla prima riga
+    */
+    public PostLoader(ReadableByteChannel in) throws NullPointerException {
+        if (in == null)
+            throw new NullPointerException();
+        this.in = in;
+        // un byte non valido diventa un carattere di sostituzione: la riga verrà comunque letta
+        this.decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(1 << 16);
+        this.chars = CharBuffer.allocate(1 << 13);
+        this.chars.flip();
+        this.line = new StringBuilder();
+    }
+
+    /*
+    @requires:  file != null
+    @throws:    Se file == null solleva NullPointerException
+                Se il file non può essere aperto solleva IOException
+    @effects:   Crea un lettore delle righe del file
+    */
+    public PostLoader(Path file) throws NullPointerException, IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    // decodifica altri caratteri in chars, che deve essere già stato consumato; false se il file è finito
+    private boolean fill() throws IOException {
+        this.chars.clear();
+        while (this.chars.position() == 0 && !this.flushed) {
+            if (!this.eof && this.in.read(this.bytes) < 0)
+                this.eof = true;
+            this.bytes.flip();
+            this.decoder.decode(this.bytes, this.chars, this.eof);
+            this.bytes.compact();
+            // i byte rimasti non stavano in chars: li decodifico alla prossima chiamata
+            if (this.eof && this.bytes.position() == 0) {
+                this.decoder.flush(this.chars);
+                this.flushed = true;
+            }
+        }
+        this.chars.flip();
+        return this.chars.hasRemaining();
+    }
+
+    /*
+    @requires:  true
+    @throws:    Se la lettura dal canale fallisce solleva IOException
+    @modifies:  this
+    @effects:   Se letta < righe.size() ritorna r_letta+1 (senza il terminatore di riga)
+                e incrementa letta, altrimenti ritorna null
+    */
+    public String nextLine() throws IOException {
+        this.line.setLength(0);
+        boolean any = false;
+        while (true) {
+            if (!this.chars.hasRemaining() && !fill()) {
+                if (!any)
+                    return null;
+                break;
+            }
+            any = true;
+            // cerco il fine riga direttamente nell'array del buffer
+            char[] a = this.chars.array();
+            int from = this.chars.position(), to = this.chars.limit(), i = from;
+            while (i < to && a[i] != '\n')
+                i++;
+            this.line.append(a, from, i - from);
+            if (i < to) {
+                this.chars.position(i + 1);
+                break;
+            }
+            this.chars.position(to);
+        }
+        int n = this.line.length();
+        if (n > 0 && this.line.charAt(n - 1) == '\r')
+            this.line.setLength(n - 1);
+        this.lineNumber++;
+        return this.line.toString();
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna letta, il numero di righe già lette
+    */
+    public long lineNumber() {
+        return this.lineNumber;
+    }
+
+    /*
+    Legge la prossima voce di una sezione terminata da "fine" (ad esempio un utente
+    che mette like o una parola da cercare)
+
+    @requires:  true
+    @throws:    Se la lettura dal canale fallisce solleva IOException
+    @modifies:  this
+    @effects:   Legge la prossima riga r: ritorna null se r == null o r.equals("fine"),
+                altrimenti ritorna r
+    */
+    public String nextEntry() throws IOException {
+        String s = nextLine();
+        return s == null || s.equals(END) ? null : s;
+    }
+
+    /*
+    Legge il prossimo post della sezione dei post. Se le righe del post non sono
+    valide vengono comunque consumate, così la lettura può continuare dal post successivo
+
+    @requires:  true
+    @throws:    Se la lettura dal canale fallisce solleva IOException
+                Se il post è incompleto o la data non rispetta il formato dd-MM-uuuu HH:mm
+                solleva MalformedPostException con il numero della riga non valida
+                Se il testo supera i 140 caratteri solleva TextOverflowException
+    @modifies:  this
+    @effects:   Se la prossima riga è null o "fine" la consuma e ritorna null, altrimenti
+                legge le righe autore, testo e data e ritorna
+                new Post(autore, testo, data)
+    */
+    public Post nextPost() throws IOException, MalformedPostException, TextOverflowException {
+        String author = nextEntry();
+        if (author == null)
+            return null;
+        String text = nextLine();
+        String time = text == null ? null : nextLine();
+        if (time == null)
+            throw new MalformedPostException(this.lineNumber, "post incompleto alla fine del file");
+        Date date;
+        try {
+            date = parseTime(time);
+        } catch (DateTimeParseException ex) {
+            throw new MalformedPostException(this.lineNumber, "data non valida \"" + time + "\"");
+        }
+        return new Post(author, text, date);
+    }
+
+    /*
+    @requires:  s != null
+    @throws:    Se s == null solleva NullPointerException
+                Se s non è una data valida nel formato dd-MM-uuuu HH:mm solleva DateTimeParseException
+    @effects:   Ritorna la data s nel fuso orario di sistema
+    */
+    public static Date parseTime(String s) throws NullPointerException, DateTimeParseException {
+        return Date.from(LocalDateTime.parse(s, FORMAT).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /*
+    Legge la sezione dei post e la inserisce in net a lotti di batchSize post
+    (vedi SocialNetwork.addPosts): al più batchSize post sono in memoria insieme
+
+    @requires:  net != null && errors != null && batchSize >= 1
+    @throws:    Se net == null o errors == null solleva NullPointerException
+                Se batchSize < 1 solleva IllegalArgumentException
+                Se la lettura dal canale fallisce solleva IOException
+    @modifies:  this, net
+    @effects:   Legge i post fino alla riga "fine" (o alla fine del file) e li inserisce
+                in net. Per ogni post non valido chiama errors con l'eccezione
+                corrispondente (MalformedPostException, TextOverflowException o
+                DuplicatePostException) e prosegue con il successivo.
+                Ritorna il numero di post inseriti
+    */
+    public int loadPosts(SocialNetwork net, int batchSize, Consumer<Exception> errors)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        if (net == null || errors == null)
+            throw new NullPointerException();
+        if (batchSize < 1)
+            throw new IllegalArgumentException();
+        List<Post> batch = new ArrayList<Post>(Math.min(batchSize, 1 << 16));
+        int added = 0;
+        boolean more = true;
+        while (more) {
+            try {
+                Post p = nextPost();
+                if (p != null)
+                    batch.add(p);
+                else
+                    more = false;
+            } catch (MalformedPostException | TextOverflowException ex) {
+                errors.accept(ex);
+            }
+            if (batch.size() == batchSize || (!more && !batch.isEmpty())) {
+                BatchResult r = net.addPosts(batch);
+                added += r.size() - r.failures();
+                for (int i : r.failed()) {
+                    errors.accept(new DuplicatePostException(batch.get(i).getIntId()));
+                }
+                batch.clear();
+            }
+        }
+        return added;
+    }
+
+    /*
+    @requires:  true
+    @throws:    Se la chiusura del canale fallisce solleva IOException
+    @modifies:  this
+    @effects:   Chiude il canale da cui legge this
+    */
+    public void close() throws IOException {
+        this.in.close();
+    }
+};
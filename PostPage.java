@@ -0,0 +1,64 @@
+import java.util.Collections;
+import java.util.List;
+
+public class PostPage {
+    /*
+    @overview:  PostPage è un tipo di dato astratto non modificabile che rappresenta
+                una pagina di post ritornata da SocialNetwork.getPosts(cursor, max)
+                o da SocialNetwork.homeTimeline: la lista dei post della pagina e il
+                cursore da cui riprendere la lettura con la pagina successiva.
+                Il cursore è un numero d'ordine (per getPosts quello del primo post non
+                ancora letto, per homeTimeline, che va dal più recente, quello dell'ultimo
+                letto), quindi resta valido anche se nel frattempo vengono aggiunti o
+                rimossi post: i post successivi alla pagina non vengono né saltati né ripetuti.
+                Elemento tipico: ([post_1, ..., post_k], next)
+    */
+
+    /* variabili d'istanza (private) */
+    private final List<Post> posts;
+    private final long next;
+
+    /*
+    Funzione di astrazione
+    AF(x) = (x.posts, x.next)
+
+    Invariante di rappresentazione
+    IR(x) = x.posts != null && ∀ i. x.posts.get(i) != null && x.next >= 0
+    */
+
+    /*
+    @requires:  posts != null && ∀ i. posts.get(i) != null && next >= 0
+                && posts non viene più modificata dal chiamante
+    @effects:   Crea la pagina (posts, next)
+    */
+    PostPage(List<Post> posts, long next) {
+        this.posts = posts;
+        this.next = next;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna la lista (non modificabile) dei post della pagina
+    */
+    public List<Post> getPosts() {
+        return Collections.unmodifiableList(this.posts);
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il cursore da passare a SocialNetwork.getPosts per leggere
+                la pagina successiva
+    */
+    public long getNext() {
+        return this.next;
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna true se e solo se la pagina non contiene post
+                (cioè non c'erano altri post da leggere)
+    */
+    public boolean isEmpty() {
+        return this.posts.isEmpty();
+    }
+};
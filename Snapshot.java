@@ -0,0 +1,230 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+class Snapshot {
+    /*
+    @overview:  Snapshot raccoglie il formato binario con cui SocialNetwork.save salva
+                una rete e SocialNetwork.load la ricarica. Il file è una sequenza di
+                interi, long e stringhe (lunghezza in byte seguita dai byte UTF-8):
+                    MAGIC, VERSION
+                    numero di utenti U, poi U nomi      (l'utente c è l'intero c)
+                    per ogni utente l: numero di archi k, poi k terne (autore, molteplicità, inizio)
+                    numero di post N, poi per ogni post:
+                        id, autore, timestamp, testo, numero di like h, h utenti, segno
+                dove gli utenti sono indicati con il loro intero, l'inizio di un arco è un
+                long (la posizione del primo post che l può vedere nella home timeline tra
+                quelli dell'autore, vedi SocialNetwork.homeTimeline) e il segno è un byte
+                (NO_MARK, UNMARKED o MARKED) che le sottoclassi usano per il proprio
+                stato (ad esempio i post segnalati di ModeratedSocialNetwork).
+                Writer scrive il file in sequenza con un buffer, Reader lo legge tramite
+                una mappatura in memoria, senza copiarlo prima in un buffer.
+    */
+
+    static final int MAGIC = 0x534E4554;
+    static final int VERSION = 2;
+
+    static final byte NO_MARK = 0;
+    static final byte UNMARKED = 1;
+    static final byte MARKED = 2;
+
+    /*
+    scrittura sequenziale in un file temporaneo, che sostituisce il file finale alla
+    chiusura solo se è stato chiamato commit (cioè se la scrittura è stata completata)
+    */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final Path tmp;
+        private final FileChannel out;
+        private final ByteBuffer buf;
+        // true dopo commit(): solo allora close sostituisce il file finale
+        private boolean committed;
+
+        /*
+        @requires:  file != null
+        @throws:    Se il file temporaneo non può essere creato solleva IOException
+        @effects:   Crea uno scrittore del file, vuoto, che contiene già MAGIC e VERSION
+        */
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = FileChannel.open(this.tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buf = ByteBuffer.allocate(1 << 16);
+            writeInt(MAGIC);
+            writeInt(VERSION);
+        }
+
+        // svuota il buffer se non ha almeno n byte liberi
+        private void room(int n) throws IOException {
+            if (this.buf.remaining() < n)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            this.buf.flip();
+            while (this.buf.hasRemaining())
+                this.out.write(this.buf);
+            this.buf.clear();
+        }
+
+        void writeByte(byte b) throws IOException {
+            room(1);
+            this.buf.put(b);
+        }
+
+        void writeInt(int v) throws IOException {
+            room(4);
+            this.buf.putInt(v);
+        }
+
+        void writeLong(long v) throws IOException {
+            room(8);
+            this.buf.putLong(v);
+        }
+
+        void writeString(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(b.length);
+            if (b.length <= this.buf.capacity()) {
+                room(b.length);
+                this.buf.put(b);
+            } else {
+                // più grande del buffer: lo scrivo direttamente
+                flush();
+                ByteBuffer big = ByteBuffer.wrap(b);
+                while (big.hasRemaining())
+                    this.out.write(big);
+            }
+        }
+
+        /*
+        Va chiamato dopo l'ultima scrittura: se il salvataggio si interrompe prima
+        (con un'eccezione) close non lo chiama e il file finale resta quello precedente
+
+        @modifies:  this
+        @effects:   Segna la scrittura come completata
+        */
+        void commit() {
+            this.committed = true;
+        }
+
+        /*
+        Il file finale viene sostituito solo dopo commit e dopo che il temporaneo è
+        stato scritto su disco, quindi un errore a metà scrittura lascia intatto il
+        salvataggio precedente
+
+        @throws:    Se la scrittura fallisce solleva IOException
+        @effects:   Se commit è stato chiamato scrive i byte rimasti e sostituisce il file
+                    con quello scritto, altrimenti cancella il file temporaneo
+        */
+        public void close() throws IOException {
+            boolean moved = false;
+            try {
+                if (this.committed) {
+                    flush();
+                    this.out.force(true);
+                }
+            } finally {
+                try {
+                    this.out.close();
+                    if (this.committed) {
+                        Files.move(this.tmp, this.file, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                        moved = true;
+                    }
+                } finally {
+                    if (!moved)
+                        Files.deleteIfExists(this.tmp);
+                }
+            }
+        }
+    }
+
+    /* lettura sequenziale tramite finestre mappate in memoria (al più WINDOW byte ciascuna) */
+    static final class Reader implements Closeable {
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel in;
+        private final long size;
+        // posizione nel file del primo byte di map
+        private long base;
+        private MappedByteBuffer map;
+        // buffer riusato per decodificare le stringhe
+        private byte[] scratch;
+
+        /*
+        @requires:  file != null
+        @throws:    Se il file non può essere letto, o non inizia con MAGIC e VERSION,
+                    solleva IOException
+        @effects:   Crea un lettore del file posizionato dopo MAGIC e VERSION
+        */
+        Reader(Path file) throws IOException {
+            this.in = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                this.size = this.in.size();
+                this.map = this.in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, this.size));
+                this.scratch = new byte[256];
+                if (this.size < 8 || readInt() != MAGIC)
+                    throw new IOException("Il file " + file + " non contiene una rete salvata");
+                int v = readInt();
+                if (v != VERSION)
+                    throw new IOException("Versione " + v + " del formato non supportata");
+            } catch (IOException | RuntimeException ex) {
+                // il costruttore fallisce: nessuno chiamerà close, quindi chiudo qui il canale
+                this.in.close();
+                throw ex;
+            }
+        }
+
+        // fa in modo che map contenga almeno n byte a partire dalla posizione corrente
+        private void need(int n) throws IOException {
+            if (this.map.remaining() >= n)
+                return;
+            this.base += this.map.position();
+            long len = Math.min(Math.max(WINDOW, n), this.size - this.base);
+            if (len < n)
+                throw new EOFException("Il file salvato è troncato");
+            this.map = this.in.map(FileChannel.MapMode.READ_ONLY, this.base, len);
+        }
+
+        byte readByte() throws IOException {
+            need(1);
+            return this.map.get();
+        }
+
+        int readInt() throws IOException {
+            need(4);
+            return this.map.getInt();
+        }
+
+        long readLong() throws IOException {
+            need(8);
+            return this.map.getLong();
+        }
+
+        String readString() throws IOException {
+            int n = readInt();
+            if (n < 0)
+                throw new IOException("Lunghezza di stringa non valida: " + n);
+            need(n);
+            if (this.scratch.length < n)
+                this.scratch = new byte[Math.max(n, 2 * this.scratch.length)];
+            this.map.get(this.scratch, 0, n);
+            return new String(this.scratch, 0, n, StandardCharsets.UTF_8);
+        }
+
+        /* le finestre già mappate restano valide anche dopo la chiusura del canale */
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+};
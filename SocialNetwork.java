@@ -1,9 +1,33 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
 
 public class SocialNetwork {
     /*
@@ -16,54 +40,254 @@ public class SocialNetwork {
                             posts
                         )
                         dove posts = [post_1, ..., post_n]
+
+                È sicura rispetto ai thread: più thread possono eseguire addPost, likePost
+                e rmPost in parallelo sulla stessa rete. Ogni modifica blocca la striscia
+                di lock del post e, per ogni arco liker → autore da aggiornare, le sole
+                strisce dei due utenti, una coppia alla volta: modifiche su post diversi
+                procedono in parallelo anche se hanno molti like.
     */
 
     /* variabili d'istanza (private) */
-    // associa ad ogni utente il Set degli utenti che segue
-    private Map<String, Set<String>> following;
-    // associa ad ogni utente il Set degli utenti che lo seguono
-    private Map<String, Set<String>> followers;
-    // lista dei post presenti nella rete
-    private List<Post> posts;
+    // grafo dei like: utenti codificati come interi e archi liker → autore con molteplicità
+    // (il numero di post dell'autore a cui liker ha messo like)
+    private FollowGraph graph;
+    // post presenti nella rete, indicizzati per numero d'ordine (cioè in ordine di inserimento)
+    private NavigableMap<Long, Post> posts;
+    // indice primario: associa ad ogni id il post e il suo numero d'ordine
+    private Map<Integer, Slot> byId;
+    // prossimo numero d'ordine da assegnare
+    private AtomicLong nextSeq;
+    // numero d'ordine sotto il quale store ha terminato tutti gli inserimenti (vedi getPosts(cursor, max))
+    private AtomicLong lowWater;
+    // numeri d'ordine >= lowWater il cui inserimento è terminato prima di quello di numeri minori
+    private NavigableSet<Long> finished;
+    // indice invertito: associa ad ogni parola i numeri d'ordine dei post che la contengono
+    private Map<String, NavigableSet<Long>> wordIndex;
+    // associa ad ogni autore i numeri d'ordine dei suoi post presenti nella rete
+    private Map<String, NavigableSet<Long>> byAuthor;
+    // post presenti ordinati per data di pubblicazione (a parità di data per numero d'ordine)
+    private NavigableSet<TimeKey> byTime;
+    // associa ad ogni autore i suoi post presenti ordinati come in byTime
+    private Map<String, NavigableSet<TimeKey>> authorTimes;
+    // utenti seguiti da più persone di quante ne seguono, aggiornato ad ogni modifica degli archi
+    private Set<String> influencerSet;
+    // classifica degli autori per numero di followers, aggiornata in ritardo da dirtyRanks
+    private FollowerRanking ranking;
+    // autori il cui numero di followers è cambiato dopo l'ultimo aggiornamento di ranking, con il nuovo valore
+    private Map<String, Integer> dirtyRanks;
+    // lock a strisce degli utenti: la striscia di un utente è stripes[stripe(nome)]
+    private ReentrantLock[] stripes;
+    // lock a strisce dei post: la striscia di un post è postStripes[stripe(id)]
+    private ReentrantLock[] postStripes;
+    // true se la rete contiene (o ha contenuto) un post con id non assegnato dall'allocatore di Post
+    private volatile boolean foreignIds;
+    // numero di modifiche eseguite (post aggiunti, rimossi e like), per invalidare columnsCache
+    private AtomicLong version;
+    // ultima rappresentazione per colonne calcolata da columns(), null se mai calcolata
+    private volatile Columns columnsCache;
+    // registro delle modifiche (null se non c'è): vedi setLog
+    private volatile MutationLog log;
+    // impronta della rete (vedi fingerprint()), aggiornata ad ogni post e arco aggiunto o rimosso
+    private LongAdder fingerprint;
+    // home timeline degli utenti (fan-out in scrittura), creata al primo post ricevuto
+    private Map<String, HomeTimeline> timelines;
+    // associa ad ogni autore i numeri d'ordine dei suoi post presenti pubblicati con più di
+    // fanOutThreshold followers: non sono nelle timeline e vengono letti al momento (fan-out in lettura)
+    private Map<String, NavigableSet<Long>> pulled;
+    // numero d'ordine sotto il quale i post non sono stati inviati alle timeline (rete costruita
+    // da una lista o ricaricata con load): vengono letti al momento come quelli di pulled
+    private volatile long pullBelow;
+    // per ogni arco (l, a) aggiunto dopo la costruzione, con chiave edgeKey(l, a), il valore di
+    // nextSeq quando è stato aggiunto: l vede solo i post di a con numero d'ordine successivo
+    private Map<Long, Long> followSince;
+    // numero di followers oltre il quale un post non viene inviato alle timeline
+    private volatile int fanOutThreshold;
+
+    // numero di strisce (potenza di 2)
+    private static final int STRIPES = 256;
+    // sotto questo numero di post la costruzione parallela non conviene
+    private static final int PARALLEL_THRESHOLD = 8192;
+    // numero massimo di post in una home timeline e valore iniziale di fanOutThreshold
+    private static final int TIMELINE_SIZE = 800;
+    private static final int FAN_OUT_THRESHOLD = 10000;
+
+    /*
+    Compito fork-join che esegue body(i) per ogni i in [lo, hi), dividendo
+    l'intervallo a metà finché non ha al più grain elementi da eseguire direttamente
+    */
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int GRAIN = 1024;
+        private final int lo, hi, grain;
+        private final IntConsumer body;
+
+        RangeTask(int lo, int hi, int grain, IntConsumer body) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        protected void compute() {
+            if (this.hi - this.lo <= this.grain) {
+                for (int i = this.lo; i < this.hi; i++) {
+                    this.body.accept(i);
+                }
+            } else {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(new RangeTask(this.lo, mid, this.grain, this.body),
+                        new RangeTask(mid, this.hi, this.grain, this.body));
+            }
+        }
+    }
+
+    // pool con un dato numero di thread, creati una volta sola e riusati (vedi pool)
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    /* rappresentazione per colonne dei post, con la versione di this da cui è stata calcolata */
+    private static final class Columns {
+        private final long version;
+        private final PostColumns columns;
+
+        Columns(long version, PostColumns columns) {
+            this.version = version;
+            this.columns = columns;
+        }
+    }
+
+    /*
+    Chiave degli indici per data: ordina per data di pubblicazione e poi per numero
+    d'ordine, quindi due post distinti hanno sempre chiavi distinte. Contiene anche
+    il post, così scorrere un indice per data non richiede di cercarlo in posts
+    */
+    private static final class TimeKey implements Comparable<TimeKey> {
+        private final long time;
+        private final long seq;
+        private final Post post;
+
+        TimeKey(long time, long seq, Post post) {
+            this.time = time;
+            this.seq = seq;
+            this.post = post;
+        }
+
+        public int compareTo(TimeKey other) {
+            int c = Long.compare(this.time, other.time);
+            return c != 0 ? c : Long.compare(this.seq, other.seq);
+        }
+    }
+
+    /* coppia (numero d'ordine, post) memorizzata nell'indice primario */
+    private static final class Slot {
+        private final long seq;
+        private final Post post;
+
+        Slot(long seq, Post post) {
+            this.seq = seq;
+            this.post = post;
+        }
+    }
 
     /*
     Funzione di astrazione
     AF(x) = (
                 followers:
-                x.followers.keySet() → {x.followers.get(i) : i ∊ x.followers.keySet()}
+                x.byAuthor.keySet() → {x.followers.get(i) : i ∊ x.byAuthor.keySet()}
                 ,
                 following:
                 x.following.keySet() → {x.following.get(i) : i ∊ following.keySet()}
                 ,
-                x.posts
+                [x.posts.values()]      (in ordine crescente di numero d'ordine)
             )
+    dove, chiamati AF_FollowGraph(x.graph) = (users, edges) e code(u) l'intero di u,
+        x.followers.get(a) = {l : l ∊ users && (code(l), code(a)) ∊ edges}
+        x.following.keySet() = {l : l ∊ users && ∃ a. (code(l), code(a)) ∊ edges}
+        x.following.get(l) = {a : a ∊ users && (code(l), code(a)) ∊ edges}
+    (sono le mappe ritornate da getFollowers() e getFollowing()).
+    Nel seguito x.posts.get(i) indica l'i-esimo post di x.posts.values()
+    in ordine di inserimento, mentre seq(p) indica il numero d'ordine di p.
+
     Invariante di rappresentazione
     IR(x) = x != null
             && x.posts != null
-            && x.following != null
-            && x.followers != null
+            && x.graph != null
+            && x.byId != null && x.nextSeq != null && x.stripes != null && x.postStripes != null
+            && x.version != null
+            && x.fingerprint != null
+            && x.timelines != null && x.pulled != null && x.fanOutThreshold >= 0
+            && ∀ a. a ∊ x.pulled.keySet() ==> ∅ != x.pulled.get(a) ⊆ x.byAuthor.get(a)
+            && 0 <= x.pullBelow <= x.nextSeq.get()
+            && x.followSince != null
+            && ∀ k. k ∊ x.followSince.keySet() ==> ∃ (l, a) ∊ edges. k == edgeKey(l, a)
+                                                    && x.followSince.get(k) <= x.nextSeq.get()
+            && x.fingerprint.sum() = Σ {postHash(id) : id ∊ x.byId.keySet()}
+                                    + Σ {edgeHash(l, a) : (code(l), code(a)) ∊ edges}   (modulo 2^64)
+            && (x.columnsCache != null && x.columnsCache.version == x.version.get())
+                ==> AF_PostColumns(x.columnsCache.columns) = [x.posts.values()]
+            && x.lowWater != null && x.finished != null && x.lowWater.get() <= x.nextSeq.get()
+            && ∀ s. s ∊ x.finished ==> x.lowWater.get() < s < x.nextSeq.get()
+            && x.byId.size() == x.posts.size()
+            && (∃ id. id ∊ x.byId.keySet() && !x.byId.get(id).post.hasGeneratedId()) ==> x.foreignIds
+            && ∀ id. id ∊ x.byId.keySet()
+                && x.byId.get(id).post.getId().equals(id)
+                && x.posts.get(x.byId.get(id).seq) == x.byId.get(id).post
+                && x.byId.get(id).seq < x.nextSeq.get()
             && ∀ i.
                 0 <= i < x.posts.size()
                 && IR_Post(x.posts.get(i)) == true      (ogni post nel social deve rispettare l'IR di Post)
             && x.following.keySet() =  {x.posts.get(j).getLikes() :
                                             0 <= j < x.posts.size()
-                                        }
+                                        } (perché un arco esiste solo se sostenuto da un like)
             && ∀ i. i ∊ x.following.keySet()
                     && x.following.get(i) =
                         {x.posts.get(k).getAuthor() :
                             0 <= k < x.posts.size()
                             && x.posts.get(k).getLikes().contains(i)
                         }
-            && x.followers.keySet() =  {x.posts.get(j).getAuthor() :
-                                            0 <= j < x.posts.size()
-                                            && x.posts.get(j).getLikes() != ∅
-                                        }
-            && ∀ i. i ∊ x.followers.keySet()
+            && ∀ i. i ∊ x.byAuthor.keySet()
                     && x.followers.get(i) =
                         {x.posts.get(k).getLikes() :
                             0 <= k < x.posts.size()
                             && x.posts.get(k).getAuthor().equals(i)
                         }
+            && ∀ (i, j). (code(i), code(j)) ∊ edges
+                ==> edges(code(i), code(j)) =
+                        #{x.posts.get(k) :
+                            0 <= k < x.posts.size()
+                            && x.posts.get(k).getAuthor().equals(j)
+                            && x.posts.get(k).getLikes().contains(i)
+                        }
+            && x.wordIndex != null
+            && ∀ w. w ∊ x.wordIndex.keySet()
+                && x.wordIndex.get(w) =
+                    {seq(x.posts.get(k)) :
+                        0 <= k < x.posts.size()
+                        && w ∊ tokens(x.posts.get(k).getText())
+                    } != ∅
+            && x.byTime != null
+            && x.byTime = {(posts.get(k).getTime(), seq(posts.get(k)), posts.get(k)) : 0 <= k < x.posts.size()}
+            && x.authorTimes != null && x.authorTimes.keySet() = x.byAuthor.keySet()
+            && ∀ a. a ∊ x.authorTimes.keySet()
+                && x.authorTimes.get(a) = {t : t ∊ x.byTime && t.post.getAuthor().equals(a)}
+            && x.byAuthor != null
+            && ∀ a. a ∊ x.byAuthor.keySet()
+                && x.byAuthor.get(a) =
+                    {seq(x.posts.get(k)) :
+                        0 <= k < x.posts.size()
+                        && x.posts.get(k).getAuthor().equals(a)
+                    } != ∅
+            && x.influencerSet != null
+            && x.influencerSet = {i :
+                                    i ∊ x.byAuthor.keySet()
+                                    && #{x.followers.get(i)} > #{x.following.get(i)}
+                                }
+                (dove #{x.following.get(i)} = 0 se i ∉ x.following.keySet())
+            && x.ranking != null && x.dirtyRanks != null
+            && AF_FollowerRanking(x.ranking) aggiornata con x.dirtyRanks = {i → #{x.followers.get(i)} :
+                                                    i ∊ x.byAuthor.keySet()
+                                                    && x.followers.get(i) != ∅
+                                                }
     */
 
     /*
@@ -77,9 +301,31 @@ public class SocialNetwork {
 
     */
     public SocialNetwork() {
-        this.posts = new ArrayList<Post>();
-        this.following = new HashMap<String, Set<String>>();
-        this.followers = new HashMap<String, Set<String>>();
+        this.posts = new ConcurrentSkipListMap<Long, Post>();
+        this.byId = new ConcurrentHashMap<Integer, Slot>();
+        this.nextSeq = new AtomicLong();
+        this.lowWater = new AtomicLong();
+        this.finished = new ConcurrentSkipListSet<Long>();
+        this.version = new AtomicLong();
+        this.fingerprint = new LongAdder();
+        this.timelines = new ConcurrentHashMap<String, HomeTimeline>();
+        this.pulled = new ConcurrentHashMap<String, NavigableSet<Long>>();
+        this.followSince = new ConcurrentHashMap<Long, Long>();
+        this.fanOutThreshold = FAN_OUT_THRESHOLD;
+        this.graph = new FollowGraph();
+        this.wordIndex = new ConcurrentHashMap<String, NavigableSet<Long>>();
+        this.byAuthor = new ConcurrentHashMap<String, NavigableSet<Long>>();
+        this.byTime = new ConcurrentSkipListSet<TimeKey>();
+        this.authorTimes = new ConcurrentHashMap<String, NavigableSet<TimeKey>>();
+        this.influencerSet = ConcurrentHashMap.newKeySet();
+        this.ranking = new FollowerRanking();
+        this.dirtyRanks = new ConcurrentHashMap<String, Integer>();
+        this.stripes = new ReentrantLock[STRIPES];
+        this.postStripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new ReentrantLock();
+            this.postStripes[i] = new ReentrantLock();
+        }
     }
 
     /*
@@ -88,7 +334,8 @@ public class SocialNetwork {
     @modifies:  this
     @effects:   Crea un'istanza di SocialNetwork indotta dai post in ps, ovvero
                 la tripla formata dalla lista di post ps e le mappe opportunamente
-                generate:
+                generate (se in ps compaiono più post con lo stesso id viene
+                considerato soltanto il primo):
 
                 (
                     followers:
@@ -105,16 +352,146 @@ public class SocialNetwork {
                 )
     */
     public SocialNetwork(List<Post> ps) throws NullPointerException {
+        // prima creo una rete vuota
+        this();
         if (ps == null)
             throw new NullPointerException();
-        this.posts = new ArrayList<Post>(ps);
-        // prima creo delle mappe vuote
-        this.following = new HashMap<String, Set<String>>();
-        this.followers = new HashMap<String, Set<String>>();
-        // Poi aggiorno le mappe sulla base dei post in ps
-        for (Post p : ps) {
-            updateFollowers(p, this.followers);
-            updateFollowing(p, this.following);
+        if (ps.size() < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            // Poi aggiungo i post e aggiorno le mappe: this non è ancora visibile
+            // ad altri thread, quindi non servono i lock
+            for (Post p : ps) {
+                store(p, p.getLikes(), true);
+            }
+        } else {
+            bulkLoad(ps, ForkJoinPool.commonPool());
+        }
+        constructed();
+    }
+
+    /*
+    Come il precedente, ma con parallelism thread: se parallelism == 1 i post
+    vengono inseriti uno alla volta, altrimenti la lista viene divisa tra i thread
+    di un ForkJoinPool (vedi bulkLoad). Il risultato è lo stesso in entrambi i casi
+
+    @requires:  ps != null && parallelism >= 1
+    @throws:    Se ps == null solleva NullPointerException
+                Se parallelism < 1 solleva IllegalArgumentException
+    @modifies:  this
+    @effects:   Crea la stessa rete di SocialNetwork(ps)
+    */
+    public SocialNetwork(List<Post> ps, int parallelism) throws NullPointerException, IllegalArgumentException {
+        this();
+        if (ps == null)
+            throw new NullPointerException();
+        if (parallelism < 1)
+            throw new IllegalArgumentException();
+        if (parallelism == 1) {
+            for (Post p : ps) {
+                store(p, p.getLikes(), true);
+            }
+        } else {
+            bulkLoad(ps, pool(parallelism));
+        }
+        constructed();
+    }
+
+    /*
+    Chiude la costruzione da una lista: i post della lista non sono stati inviati
+    alle timeline, quindi vengono letti al momento, e gli archi valgono per tutti
+    i post della lista (come se ogni utente seguisse gli autori fin dall'inizio)
+
+    @requires:  this non è ancora visibile ad altri thread
+    @modifies:  this
+    @effects:   pullBelow = nextSeq e followSince = ∅
+    */
+    private void constructed() {
+        this.pullBelow = this.nextSeq.get();
+        this.followSince.clear();
+    }
+
+    /*
+    Ritorna un ForkJoinPool con parallelism thread condiviso tra tutte le chiamate:
+    il pool comune se ha già quel parallelismo, altrimenti un pool creato alla prima
+    richiesta e mai chiuso. I thread di un ForkJoinPool terminano dopo un periodo
+    di inattività, quindi un pool inutilizzato non occupa thread
+
+    @requires:  parallelism >= 1
+    @effects:   Ritorna un pool con parallelismo parallelism
+    */
+    protected static ForkJoinPool pool(int parallelism) {
+        if (parallelism == ForkJoinPool.getCommonPoolParallelism())
+            return ForkJoinPool.commonPool();
+        return POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    /*
+    Esegue body(i) per ogni i in [0, n) con i thread di pool (anche per le sottoclassi)
+
+    @requires:  pool != null && body != null && n >= 0
+    @effects:   Esegue body(0), ..., body(n - 1) in parallelo e ritorna quando
+                sono terminate tutte; un'eccezione sollevata da body viene rilanciata
+    */
+    protected static void parallelFor(ForkJoinPool pool, int n, IntConsumer body) {
+        pool.invoke(new RangeTask(0, n, RangeTask.GRAIN, body));
+    }
+
+    /*
+    Costruzione parallela a partire da una rete vuota, in tre fasi:
+    1.  ogni post prova a registrare il proprio id in byId con numero d'ordine pari
+        alla sua posizione in ps: a parità di id vince la posizione minore,
+        quindi come nella costruzione sequenziale viene considerato solo il primo
+    2.  i post vincitori vengono inseriti in posts e indicizzati in parallelo: gli
+        archi sono aggiunti a graph tenendo le strisce dei due estremi, gli
+        indici delle parole e degli autori sono mappe concorrenti
+    3.  influencerSet e ranking vengono calcolati una volta sola alla fine, dai gradi
+        finali del grafo, invece che ad ogni arco
+
+    @requires:  ps != null && pool != null && this è vuota e non visibile ad altri thread
+    @throws:    Se ps contiene null solleva NullPointerException
+    @modifies:  this
+    @effects:   Rende this uguale alla rete ottenuta inserendo i post di ps
+                uno alla volta con store
+    */
+    private void bulkLoad(List<Post> ps, ForkJoinPool pool) throws NullPointerException {
+        Post[] arr = ps.toArray(new Post[0]);
+        int n = arr.length;
+        parallelFor(pool, n, i -> {
+            this.byId.merge(arr[i].getIntId(), new Slot(i, arr[i]), (a, b) -> a.seq <= b.seq ? a : b);
+        });
+        parallelFor(pool, n, i -> {
+            Post p = arr[i];
+            // p è stato preceduto in ps da un post con lo stesso id
+            if (this.byId.get(p.getIntId()).seq != i)
+                return;
+            if (!p.hasGeneratedId())
+                this.foreignIds = true;
+            this.posts.put((long) i, p);
+            this.fingerprint.add(postHash(p.getIntId()));
+            String author = p.getAuthor();
+            int a = this.graph.intern(author);
+            for (String like : p.getLikes()) {
+                lockUsers(like, author);
+                try {
+                    if (this.graph.addEdge(this.graph.intern(like), a))
+                        this.fingerprint.add(edgeHash(like, author));
+                } finally {
+                    unlockUsers(like, author);
+                }
+            }
+            indexText(p, i);
+        });
+        rankAll();
+        this.nextSeq.set(n);
+        this.lowWater.set(n);
+        this.version.incrementAndGet();
+    }
+
+    // calcola influencerSet e ranking dai gradi di tutti gli utenti di graph (this non è visibile ad altri thread)
+    private void rankAll() {
+        for (int id = 0; id < this.graph.size(); id++) {
+            String user = this.graph.name(id);
+            updateInfluencer(user, id);
+            this.ranking.update(user, this.graph.followerCount(id));
         }
     }
 
@@ -139,11 +516,7 @@ public class SocialNetwork {
             followAuth.get(post.getAuthor()).addAll(post.getLikes());
         } else {
             // l'autore non era presente nella mappa, allora devo inserire la coppia chiave → valore
-            Set<String> likes = new HashSet<String>();
-            for (String like : post.getLikes()) {
-                likes.add(new String(like));
-            }
-            followAuth.put(post.getAuthor(), likes);
+            followAuth.put(post.getAuthor(), new HashSet<String>(post.getLikes()));
         }
     }
 
@@ -179,48 +552,425 @@ public class SocialNetwork {
         }
     }
 
+    /*
+    Aggiunge alle mappe di this il solo arco liker → author, senza riesaminare
+    gli altri like del post (costo indipendente dal numero di like).
+    L'arco conta i post di author a cui liker ha messo like: le mappe vengono
+    modificate solo quando il contatore passa da 0 a 1
+
+    @requires:  liker != null && author != null
+                && il thread corrente possiede le strisce di liker e di author
+    @modifies:  this
+    @effects:   edges(code(liker), code(author)) → edges(code(liker), code(author)) + 1
+                (se liker o author non sono ancora nel dizionario vengono codificati),
+                quindi following.get(liker) → {following.get(liker)} U {author}
+                e followers.get(author) → {followers.get(author)} U {liker}
+                e, se l'arco è nuovo, followSince.get(edgeKey(liker, author)) → nextSeq
+    */
+    private void addEdge(String liker, String author) {
+        int l = this.graph.intern(liker);
+        int a = this.graph.intern(author);
+        // se l'arco esisteva già basta incrementare il contatore
+        if (!this.graph.addEdge(l, a))
+            return;
+        // letto tenendo la striscia di author: un post che fanOut non invia a liker ha già il suo numero d'ordine
+        this.followSince.put(edgeKey(l, a), this.nextSeq.get());
+        this.fingerprint.add(edgeHash(liker, author));
+        // solo i due estremi dell'arco possono aver cambiato stato
+        updateInfluencer(liker, l);
+        updateInfluencer(author, a);
+        this.dirtyRanks.put(author, this.graph.followerCount(a));
+    }
+
+    /*
+    Ricalcola lo stato di influencer di user a partire dalle dimensioni dei suoi
+    Set di followers e following (costo O(1))
+
+    @requires:  user != null && id == code(user) && il thread corrente possiede la striscia di user
+    @modifies:  this
+    @effects:   Se #{followers.get(user)} > #{following.get(user)}
+                    influencerSet = influencerSet U {user}
+                altrimenti influencerSet = influencerSet - {user}
+    */
+    private void updateInfluencer(String user, int id) {
+        if (this.graph.followerCount(id) > this.graph.followingCount(id))
+            this.influencerSet.add(user);
+        else
+            this.influencerSet.remove(user);
+    }
+
+    /*
+    Decrementa il contatore dell'arco liker → author e, se nessun post di author
+    ha più il like di liker, rimuove l'arco da following e followers
+
+    @requires:  liker != null && author != null
+                && il thread corrente possiede le strisce di liker e di author
+    @modifies:  this
+    @effects:   Se edges(code(liker), code(author)) == 1
+                    rimuove l'arco: following.get(liker) → following.get(liker) - {author}
+                    e followers.get(author) → followers.get(author) - {liker}
+                    (e la sua chiave da followSince)
+                Se edges(code(liker), code(author)) > 1 ne decrementa la molteplicità
+                Altrimenti (arco non contato) non fa nulla
+    */
+    private void removeEdge(String liker, String author) {
+        int l = this.graph.lookup(liker);
+        int a = this.graph.lookup(author);
+        if (l == -1 || a == -1 || !this.graph.removeEdge(l, a))
+            return;
+        this.followSince.remove(edgeKey(l, a));
+        this.fingerprint.add(-edgeHash(liker, author));
+        updateInfluencer(liker, l);
+        updateInfluencer(author, a);
+        this.dirtyRanks.put(author, this.graph.followerCount(a));
+    }
+
+    /*
+    Come addEdge e removeEdge, ma acquisiscono da sé le strisce di liker e di author
+    e le rilasciano subito dopo: un post con molti like aggiorna i suoi archi una
+    coppia di utenti alla volta, invece di bloccare insieme le strisce di tutti.
+    Il chiamante tiene la striscia del post, quindi gli archi sostenuti da uno
+    stesso post sono aggiunti e tolti nell'ordine in cui i like sono stati aggiunti
+    e il post rimosso: il contatore di un arco non viene mai decrementato prima
+    dell'incremento corrispondente, anche se archi di post diversi si alternano
+
+    @requires:  liker != null && author != null && il thread corrente possiede
+                la striscia del post che sostiene l'arco e nessuna striscia di utenti
+    @modifies:  this
+    @effects:   Come addEdge(liker, author) e removeEdge(liker, author)
+    */
+    private void addEdgeLocked(String liker, String author) {
+        lockUsers(liker, author);
+        try {
+            addEdge(liker, author);
+        } finally {
+            unlockUsers(liker, author);
+        }
+    }
+
+    private void removeEdgeLocked(String liker, String author) {
+        lockUsers(liker, author);
+        try {
+            removeEdge(liker, author);
+        } finally {
+            unlockUsers(liker, author);
+        }
+    }
+
+    /*
+    Divide il testo nelle parole che lo compongono: una parola è una sequenza
+    massimale di lettere e cifre (punteggiatura e spazi fanno da separatori)
+
+    @requires:  text != null
+    @throws:    Se text == null solleva NullPointerException
+    @effects:   Ritorna l'insieme delle parole di text
+    */
+    static Set<String> tokens(String text) throws NullPointerException {
+        Set<String> words = new HashSet<String>();
+        for (String w : text.split("[^\\p{L}\\p{N}]+")) {
+            // split produce una stringa vuota se il testo inizia con un separatore
+            if (!w.isEmpty())
+                words.add(w);
+        }
+        return words;
+    }
+
+    /*
+    Aggiunge il numero d'ordine seq alla lista di post associata a key nell'indice index.
+    La stessa chiave può essere modificata da thread che non condividono strisce
+    (ad esempio post diversi che contengono la stessa parola), quindi la modifica
+    avviene atomicamente dentro compute
+
+    @requires:  index != null && key != null
+    @modifies:  index
+    @effects:   index.get(key) → {index.get(key)} U {seq}
+                (se key non è presente viene aggiunta con valore {seq})
+    */
+    private static void addToIndex(Map<String, NavigableSet<Long>> index, String key, long seq) {
+        index.compute(key, (k, posting) -> {
+            if (posting == null)
+                posting = new ConcurrentSkipListSet<Long>();
+            posting.add(seq);
+            return posting;
+        });
+    }
+
+    /*
+    Rimuove il numero d'ordine seq dalla lista di post associata a key nell'indice index
+
+    @requires:  index != null && key != null
+    @modifies:  index
+    @effects:   index.get(key) → index.get(key) - {seq}
+                e se la lista resta vuota rimuove key dall'indice
+    */
+    private static void removeFromIndex(Map<String, NavigableSet<Long>> index, String key, long seq) {
+        index.computeIfPresent(key, (k, posting) -> {
+            posting.remove(seq);
+            return posting.isEmpty() ? null : posting;
+        });
+    }
+
+    /*
+    Aggiorna le mappe di this con un post appena inserito in posts
+
+    @requires:  p != null && p ∊ posts && seq == seq(p) && likes = p.getLikes()
+                && il thread corrente possiede la striscia del post p
+    @modifies:  this
+    @effects:   Esegue addEdgeLocked(l, p.getAuthor()) ∀ l ∊ likes,
+                aggiunge seq a wordIndex.get(w) ∀ w ∊ tokens(p.getText())
+                e a byAuthor.get(p.getAuthor())
+    */
+    private void indexPost(Post p, long seq, Set<String> likes) {
+        String author = p.getAuthor();
+        for (String like : likes) {
+            addEdgeLocked(like, author);
+        }
+        indexText(p, seq);
+    }
+
+    /*
+    @requires:  p != null && p ∊ posts && seq == seq(p)
+    @modifies:  this
+    @effects:   Aggiunge seq a wordIndex.get(w) ∀ w ∊ tokens(p.getText())
+                e a byAuthor.get(p.getAuthor()), e p agli indici per data
+    */
+    private void indexText(Post p, long seq) {
+        String author = p.getAuthor();
+        for (String w : tokens(p.getText())) {
+            addToIndex(this.wordIndex, w, seq);
+        }
+        addToIndex(this.byAuthor, author, seq);
+        TimeKey key = new TimeKey(p.getTime(), seq, p);
+        this.byTime.add(key);
+        this.authorTimes.compute(author, (k, times) -> {
+            if (times == null)
+                times = new ConcurrentSkipListSet<TimeKey>();
+            times.add(key);
+            return times;
+        });
+    }
+
     /**
     Devo togliere l'autore del post rimosso dai seguiti degli utenti se essi hanno messo like a tale autore soltanto nel post rimosso e togliere di conseguenza l'utente
-    dai followers dell'autore
-    Sfrutto inoltre il fatto di aver già tolto p da this.posts, altrimenti dovrei controllare l'id dei post.
+    dai followers dell'autore.
+    Grazie alle molteplicità degli archi in graph basta decrementare gli archi sostenuti dai like di p,
+    senza riesaminare gli altri post né gli altri utenti.
 
-    @requires:  p != null
+    @requires:  p != null && seq == seq(p) && likes = p.getLikes()
+                && il thread corrente possiede la striscia del post p
     @throws:    Se p == null allora solleva NullPointerException
     @modifies:  this
-    @effects:   ∀ k. k ∊ following.keySet()
-                    Se k ∉ {posts.get(i).getLikes().get(j) :
-                                ∀ (i, j).
-                                0 <= j < posts.getLikes().size()
-                                && 0 <= i < posts.size()
-                                && posts.get(i).getAuthor().equals(p.getAuthor())
-                            }
-                    allora k → following.get(k) - {p.getAuthor()}
-                    e k → followers.get(p.getAuthor()) - {k}
+    @effects:   ∀ l. l ∊ likes esegue removeEdgeLocked(l, p.getAuthor())
+                e rimuove seq da wordIndex.get(w) ∀ w ∊ tokens(p.getText())
+                e da byAuthor.get(p.getAuthor()) e pulled.get(p.getAuthor()), e p dagli
+                indici per data (le chiavi rimaste senza post vengono tolte dagli indici)
     */
-    private void rmFromMaps(Post p) throws NullPointerException {
+    private void rmFromMaps(Post p, long seq, Set<String> likes) throws NullPointerException {
         if (p == null)
             throw new NullPointerException();
-        Set<String> hasOtherLikes = new HashSet<String>();
-        // Seleziono, tra i post rimanenti, quelli dello stesso autore di p
-        for (Post element : this.posts) {
-            if (element.getAuthor().equals(p.getAuthor())) {
-                // ∃ post ∊ this.posts : post.getAuthor().equals(p.getAuthor())
-                // unisco gli utenti che hanno messo like al set di utenti da escludere
-                // dalla rimozione della relazione di following
-                hasOtherLikes.addAll(element.getLikes());
-            }
+        String author = p.getAuthor();
+        for (String like : likes) {
+            removeEdgeLocked(like, author);
+        }
+        for (String w : tokens(p.getText())) {
+            removeFromIndex(this.wordIndex, w, seq);
+        }
+        removeFromIndex(this.byAuthor, author, seq);
+        removeFromIndex(this.pulled, author, seq);
+        TimeKey key = new TimeKey(p.getTime(), seq, p);
+        this.byTime.remove(key);
+        this.authorTimes.computeIfPresent(author, (k, times) -> {
+            times.remove(key);
+            return times.isEmpty() ? null : times;
+        });
+    }
+
+    /*
+    Inserisce p nella rete, se il suo id non è già presente, assegnandogli il
+    prossimo numero d'ordine. Se check == false il controllo sui duplicati viene
+    saltato: il chiamante garantisce che l'id non è presente
+
+    @requires:  p != null && likes = p.getLikes()
+                && (check || p.getId() ∉ byId.keySet())
+                && il thread corrente possiede la striscia del post p.getId() e nessuna
+                striscia di utenti (oppure this non è ancora visibile ad altri thread)
+    @modifies:  this
+    @effects:   Se p.getId() ∊ byId.keySet() ritorna false,
+                altrimenti esegue posts = posts U [p], indexPost(p, seq(p), likes)
+                e ritorna true (se p.getId() non è stato assegnato dall'allocatore
+                imposta anche foreignIds = true)
+    */
+    private boolean store(Post p, Set<String> likes, boolean check) {
+        Slot slot = new Slot(this.nextSeq.getAndIncrement(), p);
+        try {
+            if (!p.hasGeneratedId())
+                this.foreignIds = true;
+            if (!check)
+                this.byId.put(p.getIntId(), slot);
+            else if (this.byId.putIfAbsent(p.getIntId(), slot) != null)
+                return false;
+            this.posts.put(slot.seq, p);
+        } finally {
+            finish(slot.seq);
+        }
+        this.fingerprint.add(postHash(p.getIntId()));
+        indexPost(p, slot.seq, likes);
+        this.version.incrementAndGet();
+        MutationLog l = this.log;
+        if (l != null)
+            l.logAdd(slot.seq, p, likes);
+        return true;
+    }
+
+    /*
+    Segna come terminato l'inserimento del numero d'ordine seq e avanza lowWater
+    finché i numeri successivi sono terminati, senza lock: solo chi riesce a togliere
+    lowWater da finished può avanzarlo, e chi aggiunge un numero lo fa prima di
+    leggere lowWater, quindi nessun numero terminato resta indietro
+
+    @requires:  seq è stato assegnato da store e non è ancora stato passato a finish
+    @modifies:  this
+    @effects:   finished = finished U {seq}, poi finché lowWater ∊ finished lo
+                toglie da finished e incrementa lowWater
+    */
+    private void finish(long seq) {
+        this.finished.add(seq);
+        while (true) {
+            long low = this.lowWater.get();
+            if (!this.finished.remove(low))
+                return;
+            this.lowWater.set(low + 1);
         }
-        for (String user : this.following.keySet()) {
-            /*  la seconda condizione in and è presente (non indispensabile) perché,
-                se user non seguiva l'autore prima della rimozione del post,
-                so già che non lo segue neanche dopo. Perciò posso evitare di eseguire
-                un'azione che non apporterà nessuna modifica
-            */
-            if (!hasOtherLikes.contains(user) && this.following.get(user).contains(p.getAuthor())) {
-                this.following.get(user).remove(p.getAuthor());
-                this.followers.get(p.getAuthor()).remove(user);
+    }
+
+    // numero d'ordine sotto il quale tutti i post assegnati da store sono già in posts (o sono stati rimossi)
+    private long published() {
+        return this.lowWater.get();
+    }
+
+    /*
+    Porta in ranking i numeri di followers cambiati da addEdge e removeEdge. Chi
+    modifica gli archi scrive solo in dirtyRanks (una mappa concorrente), quindi
+    la classifica non è un lock globale sulle modifiche: la aggiorna chi la legge.
+    Una voce viene tolta solo se ha ancora il valore applicato, quindi un
+    aggiornamento concorrente resta in dirtyRanks per la lettura successiva
+
+    @modifies:  this
+    @effects:   Esegue ranking.update(u, n) ∀ (u → n) ∊ dirtyRanks e ritorna ranking
+    */
+    private FollowerRanking ranking() {
+        if (this.dirtyRanks.isEmpty())
+            return this.ranking;
+        synchronized (this.ranking) {
+            for (Map.Entry<String, Integer> e : this.dirtyRanks.entrySet()) {
+                this.ranking.update(e.getKey(), e.getValue());
+                this.dirtyRanks.remove(e.getKey(), e.getValue());
             }
         }
+        return this.ranking;
+    }
+
+    // rimescola i bit di z (passo finale di MurmurHash3): bit vicini dell'ingresso danno uscite scorrelate
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    // contributo all'impronta del post con id id
+    private static long postHash(int id) {
+        return mix(id + 0x9E3779B97F4A7C15L);
+    }
+
+    // chiave di followSince dell'arco l → a: mix è biiettiva, quindi archi diversi hanno chiavi
+    // diverse, e rimescola i bit (Long.hashCode di l << 32 | a sarebbe l ^ a, con molte collisioni)
+    private static long edgeKey(int l, int a) {
+        return mix((long) l << 32 | (a & 0xFFFFFFFFL));
+    }
+
+    // contributo all'impronta dell'arco liker → author: dipende dai nomi, non dagli interi del grafo
+    private static long edgeHash(String liker, String author) {
+        return mix(((long) liker.hashCode() << 32 | (author.hashCode() & 0xFFFFFFFFL)) ^ 0xC2B2AE3D27D4EB4FL);
+    }
+
+    // striscia di lock associata a key
+    private static int stripe(Object key) {
+        return stripe(key.hashCode());
+    }
+
+    // striscia dell'id di un post (Integer.hashCode() è il valore stesso, quindi coincide con la precedente)
+    private static int stripe(int h) {
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /*
+    Ordine dei lock: prima le strisce dei post (in ordine crescente di indice), poi
+    al più due strisce di utenti (anch'esse in ordine crescente), rilasciate prima
+    di acquisirne altre. Due thread non possono quindi attendersi a vicenda
+
+    @requires:  u != null && v != null
+    @modifies:  this.stripes
+    @effects:   Blocca le strisce {stripe(u), stripe(v)} (una sola se coincidono)
+    */
+    private void lockUsers(String u, String v) {
+        int i = stripe(u), j = stripe(v);
+        this.stripes[Math.min(i, j)].lock();
+        if (i != j)
+            this.stripes[Math.max(i, j)].lock();
+    }
+
+    /*
+    @requires:  le strisce di u e di v sono state bloccate da lockUsers(u, v)
+    @modifies:  this.stripes
+    @effects:   Rilascia le strisce {stripe(u), stripe(v)}
+    */
+    private void unlockUsers(String u, String v) {
+        int i = stripe(u), j = stripe(v);
+        if (i != j)
+            this.stripes[Math.max(i, j)].unlock();
+        this.stripes[Math.min(i, j)].unlock();
+    }
+
+    /*
+    @requires:  il thread corrente non possiede strisce di utenti
+    @modifies:  this.postStripes
+    @effects:   Blocca la striscia del post pid e la ritorna
+    */
+    private ReentrantLock lockPost(int pid) {
+        ReentrantLock lk = this.postStripes[stripe(pid)];
+        lk.lock();
+        return lk;
+    }
+
+    /*
+    Metodi invocati da addPost e rmPost mentre la striscia del post è ancora
+    bloccata, dopo aver aggiornato la rete: le sottoclassi li ridefiniscono per
+    mantenere il proprio stato coerente con quello di this anche con più thread
+
+    @requires:  p != null
+    @modifies:  this
+    @effects:   Non fa nulla
+    */
+    protected void onAdd(Post p) {
+    }
+
+    protected void onRemove(Post p) {
+    }
+
+    /*
+    Metodi invocati da save e load per salvare e ricostruire lo stato delle sottoclassi
+    associato ad ogni post: save memorizza il segno ritornato da snapshotMark(p)
+    (null se la rete non ne associa) e load lo ripassa a onRestore dopo aver
+    ricostruito la rete
+
+    @requires:  p != null
+    @effects:   snapshotMark ritorna null, onRestore non fa nulla
+    */
+    protected Boolean snapshotMark(Post p) {
+        return null;
+    }
+
+    protected void onRestore(Post p, Boolean mark) {
     }
 
     /** metodo per aggiungere post alla rete sociale */
@@ -239,21 +989,95 @@ public class SocialNetwork {
     @modifies:  this
     @effects:   Esegue posts = posts U [p] e poi aggiorna le mappe chiamando le
                 funzioni definite sopra con parametro rispettivamente followers e
-                following relativi a  questa istanza
+                following relativi a  questa istanza.
+                Il controllo sui duplicati è un accesso all'indice per id (O(1))
     */
     public void addPost(Post p) throws NullPointerException, DuplicatePostException {
         if (p == null)
             throw new NullPointerException();
-        for (Post el : this.posts) {
-            if (el.getId().equals(p.getId()))
+        checkLog();
+        Set<String> likes = p.getLikes();
+        ReentrantLock lk = lockPost(p.getIntId());
+        try {
+            // inserisco solo se l'id non è già presente nell'indice, poi aggiorno le mappe
+            if (!store(p, likes, true))
                 // nell'eccezione stampo anche l'id del post che ha provocato il conflitto
-                throw new DuplicatePostException(p.getId());
+                throw new DuplicatePostException(p.getIntId());
+            onAdd(p);
+            fanOut(p);
+        } finally {
+            lk.unlock();
+        }
+        commitLog();
+    }
+
+    /** metodo per pubblicare un nuovo post, creato dalla rete stessa */
+    /*
+    Crea un post con id assegnato dall'allocatore di Post e lo aggiunge alla rete.
+    Finché la rete contiene solo post con id assegnati dall'allocatore, l'id del
+    nuovo post non può essere già presente, quindi il controllo sui duplicati
+    viene saltato; altrimenti si comporta come addPost.
+
+    @requires:  author != null && text != null && timestamp != null && text.length() <= 140
+    @throws:    Se almeno uno dei parametri è null solleva NullPointerException
+                Se text.length() > 140 solleva TextOverflowException
+                Se l'id assegnato è già presente in posts (possibile solo se la rete
+                contiene post con id scelti dal chiamante) solleva DuplicatePostException
+    @modifies:  this
+    @effects:   Crea p = new Post(author, text, timestamp), esegue posts = posts U [p]
+                aggiornando le mappe come addPost, e ritorna p
+    */
+    public Post publish(String author, String text, Date timestamp)
+    throws NullPointerException, TextOverflowException, DuplicatePostException {
+        checkLog();
+        Post p = new Post(author, text, timestamp);
+        ReentrantLock lk = lockPost(p.getIntId());
+        try {
+            // foreignIds è letto tenendo la striscia dell'id, la stessa che addPost
+            // tiene mentre inserisce un post con id scelto dal chiamante
+            if (!store(p, Set.of(), this.foreignIds))
+                throw new DuplicatePostException(p.getIntId());
+            onAdd(p);
+            fanOut(p);
+        } finally {
+            lk.unlock();
+        }
+        commitLog();
+        return p;
+    }
+
+    /*
+    Fan-out in scrittura: invia il post appena aggiunto alle home timeline dei
+    followers attuali del suo autore, se non sono più di fanOutThreshold;
+    altrimenti segna l'autore tra quelli da leggere al momento della lettura
+
+    @requires:  p ∊ posts && il thread corrente possiede la striscia del post p e nessuna striscia di utenti
+    @modifies:  this
+    @effects:   Se #{followers.get(p.getAuthor())} > fanOutThreshold aggiunge seq(p)
+                a pulled.get(p.getAuthor()), altrimenti lo aggiunge alla timeline di
+                ogni f ∊ followers.get(p.getAuthor())
+    */
+    private void fanOut(Post p) {
+        String author = p.getAuthor();
+        int a = this.graph.lookup(author);
+        if (a == -1)
+            return;
+        // i followers di author si leggono tenendo la sua striscia
+        lockUsers(author, author);
+        try {
+            if (this.graph.followerCount(a) == 0)
+                return;
+            long seq = this.byId.get(p.getIntId()).seq;
+            if (this.graph.followerCount(a) > this.fanOutThreshold) {
+                addToIndex(this.pulled, author, seq);
+                return;
+            }
+            for (int f : this.graph.followers(a)) {
+                this.timelines.computeIfAbsent(this.graph.name(f), k -> new HomeTimeline(TIMELINE_SIZE)).push(seq);
+            }
+        } finally {
+            unlockUsers(author, author);
         }
-        // aggiungo alla lista
-        this.posts.add(p);
-        // aggiorno le mappe
-        updateFollowers(p, this.followers);
-        updateFollowing(p, this.following);
     }
 
     /** metodo per rimuovere un post dalla rete sociale */
@@ -277,20 +1101,56 @@ public class SocialNetwork {
     public void rmPost(Integer pid) throws NullPointerException, NoSuchPostException {
         if (pid == null)
             throw new NullPointerException();
-        boolean nopost = true;
-        Post toRemove = null;
-        for (Post p : this.posts) {
-            if (p.getId().equals(pid)) {
-                nopost = false;
-                toRemove = p;
-            }
+        checkLog();
+        ReentrantLock lk = lockPost(pid);
+        try {
+            // cerco il post nell'indice per id (O(1)): tenendo la sua striscia
+            // nessuno può rimuoverlo né aggiungergli like finché non ho finito
+            Slot slot = this.byId.get(pid);
+            if (slot == null)
+                throw new NoSuchPostException();
+            remove(pid, slot);
+        } finally {
+            lk.unlock();
         }
-        if (nopost)
-            throw new NoSuchPostException();
-        // rimuovo dalla lista
-        this.posts.remove(toRemove);
-        // e aggiorno le mappe
-        this.rmFromMaps(toRemove);
+        commitLog();
+    }
+
+    // rimuove il post di slot dagli indici e aggiorna le mappe; il chiamante possiede la striscia
+    // del post (quindi i like non cambiano durante la rimozione) e slot è ancora associato a pid
+    private void remove(Integer pid, Slot slot) {
+        this.byId.remove(pid);
+        this.posts.remove(slot.seq);
+        this.fingerprint.add(-postHash(pid));
+        this.rmFromMaps(slot.post, slot.seq, slot.post.getLikes());
+        this.version.incrementAndGet();
+        MutationLog l = this.log;
+        if (l != null)
+            l.logRemove(pid);
+        onRemove(slot.post);
+    }
+
+    // aggiorna la rete dopo che p ha ricevuto il nuovo like di liker (il chiamante possiede la striscia di p)
+    private void liked(Post p, String liker) {
+        addEdgeLocked(liker, p.getAuthor());
+        this.version.incrementAndGet();
+        MutationLog l = this.log;
+        if (l != null)
+            l.logLike(p.getIntId(), liker);
+    }
+
+    // prima di ogni modifica: se il registro non accetta più modifiche l'operazione fallisce a rete invariata
+    private void checkLog() {
+        MutationLog l = this.log;
+        if (l != null)
+            l.ensureOpen();
+    }
+
+    // con un registro GROUP attende che le modifiche del thread corrente siano sul disco (senza lock)
+    private void commitLog() {
+        MutationLog l = this.log;
+        if (l != null)
+            l.commit();
     }
 
     /*
@@ -319,37 +1179,36 @@ public class SocialNetwork {
                     && !(this.posts.get(k).getAuthor().equals(liker))
                 )
                 allora esegue this.posts.get(k).addLike() ed aggiorna 
-                this.followers e this.following di conseguenza
+                this.followers e this.following di conseguenza, aggiungendo
+                soltanto l'arco liker → autore (nessuna modifica se il like
+                era già presente)
     */
     public void likePost(Integer pid, String liker)
             throws SelfLikeException, NoSuchPostException, NullPointerException {
         if (pid == null || liker == null) {
             throw new NullPointerException();
         }
-        // cerca post nella lista
-        boolean found = false;
-        for (Post ps : this.posts) {
-            // cerca il post nella lista
-            if (ps.getId().equals(pid)) {
-                try {
-                    // tenta di aggiungere il like (potrebbe sollevare eccezioni)
-                    ps.addLike(liker);
-                    // aggiorno le mappe
-                    updateFollowers(ps, this.followers);
-                    updateFollowing(ps, this.following);
-                } catch (SelfLikeException reject_like) {
-                    // gestisco la SelfLikeException dettagliandola e rilanciandola
-                    throw new SelfLikeException(liker + " Ha provato a mettere like al proprio post", reject_like);
-                } finally {
-                    // in ogni caso se trovo il post setto la flag
-                    found = true;
-                }
+        checkLog();
+        ReentrantLock lk = lockPost(pid);
+        try {
+            // cerca il post nell'indice per id
+            Slot slot = this.byId.get(pid);
+            // post non trovato: non posso modificarlo
+            if (slot == null) {
+                throw new NoSuchPostException();
             }
+            Post ps = slot.post;
+            // tenta di aggiungere il like (potrebbe sollevare eccezioni):
+            // aggiorno le mappe solo se il like è nuovo
+            if (ps.addLike(liker))
+                liked(ps, liker);
+        } catch (SelfLikeException reject_like) {
+            // gestisco la SelfLikeException dettagliandola e rilanciandola
+            throw new SelfLikeException(liker + " Ha provato a mettere like al proprio post", reject_like);
+        } finally {
+            lk.unlock();
         }
-        // post non trovato: non posso modificarlo
-        if (!found) {
-            throw new NoSuchPostException();
-        }
+        commitLog();
     }
 
     // semantica analoga alla precendente, ma prende un post come argomento
@@ -358,29 +1217,414 @@ public class SocialNetwork {
             throw new NullPointerException();
         }
         // chiama semplicemente la versione che usa l'id del post
-        this.likePost(p.getId(), liker);
+        this.likePost(p.getIntId(), liker);
     }
 
     /*
-    Ritorna sotto forma di mappa <String, Set<String>> la funzione che associa ad
-    ogni utente, nella rete indotta da ps, il Set di utenti che segue
+    Acquisisce in ordine crescente di indice tutte le strisce marcate di locks.
+    Le operazioni su lotti marcano le strisce dei post di tutti gli elementi e le
+    acquisiscono una sola volta, invece che una volta per elemento; gli archi sono
+    poi aggiornati una coppia di utenti alla volta come nelle operazioni singole
 
-    @requires:  ps != null
-                && (∀ i. 0 <= i < ps.size() && ps.get(i) != null)
-    @throws:    Se ps == null oppure
-                (∃ i. 0 <= i < ps.size() && ps.get(i) == null)
-                allora solleva NullPointerException
-    @effects:   Ritorna la rete sociale derivata da ps, ovvero la
-                funzione che
-                ∀ i. i ∊ {ps.get(j).getLikes() : 0 <= j < ps.size()}
-                mappa
-                i
-                →
-                {ps.get(k).getAuthor() : 0 <= k < ps.size() && ps.get(k).getLikes().contains(i)}
+    @requires:  locks ∊ {stripes, postStripes} && marked != null && marked.length == STRIPES
+                && se locks == postStripes il thread corrente non possiede strisce
+    @modifies:  locks
+    @effects:   Blocca le strisce {locks[i] : marked[i]} e ritorna i loro indici ordinati
     */
-    public Map<String, Set<String>> guessFollowers(List<Post> ps) throws NullPointerException {
-        if (ps == null)
-            throw new NullPointerException();
+    private static int[] lock(ReentrantLock[] locks, boolean[] marked) {
+        int k = 0;
+        for (boolean m : marked) {
+            if (m)
+                k++;
+        }
+        int[] held = new int[k];
+        k = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            if (marked[i]) {
+                locks[i].lock();
+                held[k++] = i;
+            }
+        }
+        return held;
+    }
+
+    /*
+    @requires:  held ritornato da lock(locks, marked) e non ancora rilasciato
+    @modifies:  locks
+    @effects:   Rilascia le strisce {locks[i] : i ∊ held}
+    */
+    private static void unlock(ReentrantLock[] locks, int[] held) {
+        for (int i = held.length - 1; i >= 0; i--) {
+            locks[held[i]].unlock();
+        }
+    }
+
+    /** metodo per aggiungere un lotto di post alla rete sociale */
+    /*
+    Prima valida tutto il lotto (id duplicati nel lotto o già presenti nella rete),
+    poi inserisce i post validi tenendo una sola volta le strisce dei post del lotto.
+    Gli errori non sollevano eccezioni ma sono riportati nel risultato
+
+    @requires:  ps != null
+    @throws:    Se ps == null solleva NullPointerException
+    @modifies:  this
+    @effects:   Chiamato p_i l'i-esimo post di ps (nell'ordine di iterazione), ritorna
+                r con
+                    r.get(i) == NULL        se p_i == null
+                    r.get(i) == DUPLICATE   se p_i.getId() è già in posts o è l'id di
+                                            un post p_j con j < i inserito dal lotto
+                    r.get(i) == OK          altrimenti, e in tal caso esegue addPost(p_i)
+                (i post sono inseriti nell'ordine di ps)
+    */
+    public BatchResult addPosts(Collection<Post> ps) throws NullPointerException {
+        if (ps == null)
+            throw new NullPointerException();
+        checkLog();
+        Post[] batch = ps.toArray(new Post[0]);
+        BatchResult.Outcome[] out = new BatchResult.Outcome[batch.length];
+        List<Set<String>> likes = new ArrayList<Set<String>>(batch.length);
+        boolean[] marked = new boolean[STRIPES];
+        for (int i = 0; i < batch.length; i++) {
+            Post p = batch[i];
+            likes.add(p == null ? null : p.getLikes());
+            if (p == null) {
+                out[i] = BatchResult.Outcome.NULL;
+                continue;
+            }
+            marked[stripe(p.getIntId())] = true;
+        }
+        int[] held = lock(this.postStripes, marked);
+        try {
+            // validazione: un id è valido se non è nella rete e non compare prima nel lotto
+            Set<Integer> seen = new HashSet<Integer>();
+            for (int i = 0; i < batch.length; i++) {
+                if (out[i] == null && (!seen.add(batch[i].getIntId()) || this.byId.containsKey(batch[i].getIntId())))
+                    out[i] = BatchResult.Outcome.DUPLICATE;
+            }
+            // applicazione: gli id sono già stati controllati
+            for (int i = 0; i < batch.length; i++) {
+                if (out[i] == null) {
+                    store(batch[i], likes.get(i), false);
+                    onAdd(batch[i]);
+                    fanOut(batch[i]);
+                    out[i] = BatchResult.Outcome.OK;
+                }
+            }
+        } finally {
+            unlock(this.postStripes, held);
+        }
+        commitLog();
+        return new BatchResult(out);
+    }
+
+    /** metodo per rimuovere un lotto di post dalla rete sociale */
+    /*
+    @requires:  pids != null
+    @throws:    Se pids == null solleva NullPointerException
+    @modifies:  this
+    @effects:   Chiamato pid_i l'i-esimo elemento di pids, ritorna r con
+                    r.get(i) == NULL            se pid_i == null
+                    r.get(i) == NO_SUCH_POST    se nessun post in posts ha id pid_i
+                                                (anche perché rimosso da pid_j con j < i)
+                    r.get(i) == OK              altrimenti, e in tal caso esegue rmPost(pid_i)
+    */
+    public BatchResult rmPosts(Collection<Integer> pids) throws NullPointerException {
+        if (pids == null)
+            throw new NullPointerException();
+        checkLog();
+        Integer[] batch = pids.toArray(new Integer[0]);
+        BatchResult.Outcome[] out = new BatchResult.Outcome[batch.length];
+        boolean[] marked = new boolean[STRIPES];
+        for (int i = 0; i < batch.length; i++) {
+            if (batch[i] == null)
+                out[i] = BatchResult.Outcome.NULL;
+            else
+                marked[stripe(batch[i])] = true;
+        }
+        int[] held = lock(this.postStripes, marked);
+        try {
+            for (int i = 0; i < batch.length; i++) {
+                if (out[i] != null)
+                    continue;
+                // lo stesso id può comparire più volte: dopo la prima non è più presente
+                Slot slot = this.byId.get(batch[i]);
+                if (slot == null) {
+                    out[i] = BatchResult.Outcome.NO_SUCH_POST;
+                    continue;
+                }
+                remove(batch[i], slot);
+                out[i] = BatchResult.Outcome.OK;
+            }
+        } finally {
+            unlock(this.postStripes, held);
+        }
+        commitLog();
+        return new BatchResult(out);
+    }
+
+    /** metodo per aggiungere un lotto di like */
+    /*
+    @requires:  likes != null
+    @throws:    Se likes == null solleva NullPointerException
+    @modifies:  this
+    @effects:   Chiamato (pid_i, liker_i) l'i-esimo elemento di likes, ritorna r con
+                    r.get(i) == NULL            se l'elemento, pid_i o liker_i è null
+                    r.get(i) == NO_SUCH_POST    se nessun post in posts ha id pid_i
+                    r.get(i) == SELF_LIKE       se liker_i è l'autore del post pid_i
+                    r.get(i) == OK              altrimenti, e in tal caso esegue likePost(pid_i, liker_i)
+    */
+    public BatchResult likePosts(List<Map.Entry<Integer, String>> likes) throws NullPointerException {
+        if (likes == null)
+            throw new NullPointerException();
+        checkLog();
+        int n = likes.size();
+        Integer[] pids = new Integer[n];
+        String[] likers = new String[n];
+        for (int i = 0; i < n; i++) {
+            Map.Entry<Integer, String> e = likes.get(i);
+            if (e != null && e.getKey() != null && e.getValue() != null) {
+                pids[i] = e.getKey();
+                likers[i] = e.getValue();
+            }
+        }
+        BatchResult.Outcome[] out = new BatchResult.Outcome[n];
+        boolean[] marked = new boolean[STRIPES];
+        for (int i = 0; i < n; i++) {
+            if (pids[i] == null)
+                out[i] = BatchResult.Outcome.NULL;
+            else
+                marked[stripe(pids[i])] = true;
+        }
+        int[] held = lock(this.postStripes, marked);
+        try {
+            for (int i = 0; i < n; i++) {
+                if (out[i] != null)
+                    continue;
+                Slot slot = this.byId.get(pids[i]);
+                if (slot == null) {
+                    out[i] = BatchResult.Outcome.NO_SUCH_POST;
+                    continue;
+                }
+                Post p = slot.post;
+                // controllo prima il like al proprio post, così non serve gestire l'eccezione
+                if (p.getAuthor().equals(likers[i])) {
+                    out[i] = BatchResult.Outcome.SELF_LIKE;
+                    continue;
+                }
+                try {
+                    if (p.addLike(likers[i]))
+                        liked(p, likers[i]);
+                } catch (SelfLikeException ex) {
+                    // impossibile: l'autore è stato escluso sopra
+                    throw new IllegalStateException(ex);
+                }
+                out[i] = BatchResult.Outcome.OK;
+            }
+        } finally {
+            unlock(this.postStripes, held);
+        }
+        commitLog();
+        return new BatchResult(out);
+    }
+
+    /*
+    Set (non modificabile) degli utenti collegati a user: i suoi followers se in == true,
+    gli utenti che segue altrimenti. Non copia gli archi: ogni operazione legge
+    direttamente graph tenendo la striscia di user, quindi riflette le modifiche successive
+    */
+    private final class UserSet extends AbstractSet<String> {
+        private final String user;
+        private final boolean in;
+
+        UserSet(String user, boolean in) {
+            this.user = user;
+            this.in = in;
+        }
+
+        public int size() {
+            int id = graph.lookup(this.user);
+            return id == -1 ? 0 : degree(id, this.in);
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof String))
+                return false;
+            int id = graph.lookup(this.user);
+            int other = graph.lookup((String) o);
+            if (id == -1 || other == -1)
+                return false;
+            ReentrantLock lk = stripes[stripe(this.user)];
+            lk.lock();
+            try {
+                return this.in ? graph.isFollowedBy(id, other) : graph.isFollowing(id, other);
+            } finally {
+                lk.unlock();
+            }
+        }
+
+        public Iterator<String> iterator() {
+            int id = graph.lookup(this.user);
+            int[] ids = new int[0];
+            if (id != -1) {
+                ReentrantLock lk = stripes[stripe(this.user)];
+                lk.lock();
+                try {
+                    ids = this.in ? graph.followers(id) : graph.following(id);
+                } finally {
+                    lk.unlock();
+                }
+            }
+            // i nomi vengono decodificati solo quando l'iteratore li ritorna
+            final int[] snapshot = ids;
+            return new Iterator<String>() {
+                private int i = 0;
+
+                public boolean hasNext() {
+                    return this.i < snapshot.length;
+                }
+
+                public String next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return graph.name(snapshot[this.i++]);
+                }
+            };
+        }
+    }
+
+    // numero di followers (in == true) o di seguiti di id, letto tenendo la sua striscia
+    private int degree(int id, boolean in) {
+        ReentrantLock lk = this.stripes[stripe(this.graph.name(id))];
+        lk.lock();
+        try {
+            return in ? this.graph.followerCount(id) : this.graph.followingCount(id);
+        } finally {
+            lk.unlock();
+        }
+    }
+
+    /*
+    Ritorna la funzione followers di this come mappa non modificabile: le chiavi sono
+    gli autori dei post presenti e i valori sono Set calcolati sul grafo degli interi,
+    senza copiare gli archi (riflettono le modifiche successive della rete)
+
+    @requires:  true
+    @effects:   Ritorna {a → followers.get(a) : a ∊ byAuthor.keySet()}
+    */
+    public Map<String, Set<String>> getFollowers() {
+        return new AbstractMap<String, Set<String>>() {
+            public boolean containsKey(Object key) {
+                return byAuthor.containsKey(key);
+            }
+
+            public Set<String> get(Object key) {
+                return containsKey(key) ? new UserSet((String) key, true) : null;
+            }
+
+            public Set<Map.Entry<String, Set<String>>> entrySet() {
+                return new AbstractSet<Map.Entry<String, Set<String>>>() {
+                    public int size() {
+                        return byAuthor.size();
+                    }
+
+                    public Iterator<Map.Entry<String, Set<String>>> iterator() {
+                        Iterator<String> authors = byAuthor.keySet().iterator();
+                        return new Iterator<Map.Entry<String, Set<String>>>() {
+                            public boolean hasNext() {
+                                return authors.hasNext();
+                            }
+
+                            public Map.Entry<String, Set<String>> next() {
+                                String a = authors.next();
+                                return new AbstractMap.SimpleImmutableEntry<String, Set<String>>(a, new UserSet(a, true));
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /*
+    Ritorna la funzione following di this come mappa non modificabile, calcolata
+    sul grafo degli interi come getFollowers()
+
+    @requires:  true
+    @effects:   Ritorna {l → following.get(l) : l ∊ following.keySet()}
+    */
+    public Map<String, Set<String>> getFollowing() {
+        return new AbstractMap<String, Set<String>>() {
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            public Set<String> get(Object key) {
+                if (!(key instanceof String))
+                    return null;
+                int id = graph.lookup((String) key);
+                return id != -1 && degree(id, false) > 0 ? new UserSet((String) key, false) : null;
+            }
+
+            public Set<Map.Entry<String, Set<String>>> entrySet() {
+                return new AbstractSet<Map.Entry<String, Set<String>>>() {
+                    public int size() {
+                        int n = 0;
+                        for (int id = 0; id < graph.size(); id++) {
+                            if (degree(id, false) > 0)
+                                n++;
+                        }
+                        return n;
+                    }
+
+                    public Iterator<Map.Entry<String, Set<String>>> iterator() {
+                        // scorre gli utenti del dizionario saltando quelli che non seguono nessuno
+                        return new Iterator<Map.Entry<String, Set<String>>>() {
+                            private int id = skip(0);
+
+                            private int skip(int from) {
+                                while (from < graph.size() && degree(from, false) == 0)
+                                    from++;
+                                return from;
+                            }
+
+                            public boolean hasNext() {
+                                return this.id < graph.size();
+                            }
+
+                            public Map.Entry<String, Set<String>> next() {
+                                if (!hasNext())
+                                    throw new NoSuchElementException();
+                                String l = graph.name(this.id);
+                                this.id = skip(this.id + 1);
+                                return new AbstractMap.SimpleImmutableEntry<String, Set<String>>(l, new UserSet(l, false));
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /*
+    Ritorna sotto forma di mappa <String, Set<String>> la funzione che associa ad
+    ogni utente, nella rete indotta da ps, il Set di utenti che segue
+
+    @requires:  ps != null
+                && (∀ i. 0 <= i < ps.size() && ps.get(i) != null)
+    @throws:    Se ps == null oppure
+                (∃ i. 0 <= i < ps.size() && ps.get(i) == null)
+                allora solleva NullPointerException
+    @effects:   Ritorna la rete sociale derivata da ps, ovvero la
+                funzione che
+                ∀ i. i ∊ {ps.get(j).getLikes() : 0 <= j < ps.size()}
+                mappa
+                i
+                →
+                {ps.get(k).getAuthor() : 0 <= k < ps.size() && ps.get(k).getLikes().contains(i)}
+    */
+    public Map<String, Set<String>> guessFollowers(List<Post> ps) throws NullPointerException {
+        if (ps == null)
+            throw new NullPointerException();
         // parto da una mappa vuota e la aggiorno con ogni post della lista
         Map<String, Set<String>> m = new HashMap<String, Set<String>>();
         for (Post p : ps) {
@@ -416,11 +1660,128 @@ public class SocialNetwork {
         return m;
     }
 
+    /*
+    Come guessFollowers(ps), ma con parallelism thread (vedi guess). Il calcolo non
+    attende mai altro che il processore, quindi non usa più thread dei processori
+    disponibili: se ne resta uno solo, o se ps è piccola, viene eseguita la
+    versione sequenziale
+
+    @requires:  ps != null && (∀ i. 0 <= i < ps.size() && ps.get(i) != null) && parallelism >= 1
+    @throws:    Se ps == null o contiene null solleva NullPointerException
+                Se parallelism < 1 solleva IllegalArgumentException
+    @effects:   Ritorna una mappa uguale a guessFollowers(ps)
+    */
+    public Map<String, Set<String>> guessFollowers(List<Post> ps, int parallelism)
+            throws NullPointerException, IllegalArgumentException {
+        if (ps == null)
+            throw new NullPointerException();
+        if (parallelism < 1)
+            throw new IllegalArgumentException();
+        parallelism = Math.min(parallelism, Runtime.getRuntime().availableProcessors());
+        if (parallelism == 1 || ps.size() < PARALLEL_THRESHOLD)
+            return guessFollowers(ps);
+        return guess(ps, parallelism, true);
+    }
+
+    /*
+    Come guessFollowing(ps), ma con parallelism thread (vedi guessFollowers(ps, parallelism))
+
+    @requires:  ps != null && (∀ i. 0 <= i < ps.size() && ps.get(i) != null) && parallelism >= 1
+    @throws:    Se ps == null o contiene null solleva NullPointerException
+                Se parallelism < 1 solleva IllegalArgumentException
+    @effects:   Ritorna una mappa uguale a guessFollowing(ps)
+    */
+    public Map<String, Set<String>> guessFollowing(List<Post> ps, int parallelism)
+            throws NullPointerException, IllegalArgumentException {
+        if (ps == null)
+            throw new NullPointerException();
+        if (parallelism < 1)
+            throw new IllegalArgumentException();
+        parallelism = Math.min(parallelism, Runtime.getRuntime().availableProcessors());
+        if (parallelism == 1 || ps.size() < PARALLEL_THRESHOLD)
+            return guessFollowing(ps);
+        return guess(ps, parallelism, false);
+    }
+
+    /*
+    Calcola guessFollowers(ps) (se byLiker) o guessFollowing(ps) in due fasi, senza
+    fondere insiemi già costruiti:
+    1.  la lista viene divisa in parti: ogni parte scorre i suoi post e ne ricava le
+        coppie (chiave, valore) della mappa, distribuite in secchi secondo l'hash
+        della chiave (per guessFollowing c'è anche la coppia (autore, null), perché
+        un autore senza like compare comunque con un insieme vuoto)
+    2.  ogni secchio, che contiene chiavi diverse da quelle degli altri, costruisce
+        la sua mappa dalle coppie di tutte le parti
+    Le mappe dei secchi hanno chiavi disgiunte, quindi alla fine basta unirle:
+    nessun insieme viene copiato in un altro
+
+    @requires:  ps != null && (∀ i. 0 <= i < ps.size() && ps.get(i) != null) && parallelism >= 2
+    @throws:    Se ps contiene null solleva NullPointerException
+    @effects:   Ritorna una mappa uguale a guessFollowers(ps) se byLiker,
+                a guessFollowing(ps) altrimenti
+    */
+    private static Map<String, Set<String>> guess(List<Post> ps, int parallelism, boolean byLiker)
+            throws NullPointerException {
+        Post[] arr = ps.toArray(new Post[0]);
+        // qualche parte e qualche secchio per thread, per bilanciare il carico
+        int parts = 4 * parallelism, buckets = 4 * parallelism;
+        // pairs.get(part * buckets + bucket) contiene chiave e valore di ogni coppia, alternati
+        List<List<String>> pairs = new ArrayList<List<String>>(parts * buckets);
+        for (int i = 0; i < parts * buckets; i++) {
+            pairs.add(new ArrayList<String>());
+        }
+        ForkJoinPool pool = pool(parallelism);
+        pool.invoke(new RangeTask(0, parts, 1, part -> {
+            int lo = (int) ((long) arr.length * part / parts), hi = (int) ((long) arr.length * (part + 1) / parts);
+            for (int i = lo; i < hi; i++) {
+                String author = arr[i].getAuthor();
+                if (!byLiker)
+                    emit(pairs, part * buckets, buckets, author, null);
+                for (String like : arr[i].getLikes().toArray(new String[0])) {
+                    if (byLiker)
+                        emit(pairs, part * buckets, buckets, like, author);
+                    else
+                        emit(pairs, part * buckets, buckets, author, like);
+                }
+            }
+        }));
+        List<Map<String, Set<String>>> maps = new ArrayList<Map<String, Set<String>>>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            maps.add(new HashMap<String, Set<String>>());
+        }
+        pool.invoke(new RangeTask(0, buckets, 1, bucket -> {
+            Map<String, Set<String>> m = maps.get(bucket);
+            for (int part = 0; part < parts; part++) {
+                List<String> l = pairs.get(part * buckets + bucket);
+                for (int k = 0; k < l.size(); k += 2) {
+                    Set<String> users = m.computeIfAbsent(l.get(k), key -> new HashSet<String>());
+                    if (l.get(k + 1) != null)
+                        users.add(l.get(k + 1));
+                }
+            }
+        }));
+        int size = 0;
+        for (Map<String, Set<String>> m : maps) {
+            size += m.size();
+        }
+        Map<String, Set<String>> res = new HashMap<String, Set<String>>(2 * size);
+        for (Map<String, Set<String>> m : maps) {
+            res.putAll(m);
+        }
+        return res;
+    }
+
+    // aggiunge la coppia (key, value) al secchio di key tra i secchi pairs[base, base + buckets)
+    private static void emit(List<List<String>> pairs, int base, int buckets, String key, String value) {
+        List<String> l = pairs.get(base + (key.hashCode() & Integer.MAX_VALUE) % buckets);
+        l.add(key);
+        l.add(value);
+    }
+
     /*  Ritorna la lista (senza duplicati) degli utenti in this che sono seguiti da più
         persone di quante ne seguano.
-        (posso limitarmi a considerare le chiavi della mappa followers in quanto un
-        utente vi compare ha ricevuto almeno un like e quindi quelli esclusi non posso
-        essere influencers).
+        L'insieme è mantenuto in influencerSet da addEdge e removeEdge, quindi non
+        serve esaminare tutte le chiavi di followers: il costo è O(#influencers).
 
     @requires:  true
     @effects:   Ritorna [i :
@@ -429,20 +1790,36 @@ public class SocialNetwork {
                         ]
     */
     public List<String> influencers() {
-        List<String> influencers = new ArrayList<String>();
-        for (String user : this.followers.keySet()) {
-            if (!(influencers.contains(user) || this.followers.get(user).isEmpty())) {
-                if (this.following.get(user) == null
-                        || this.followers.get(user).size() > this.following.get(user).size()) {
-                    influencers.add(user);
-                }
-            }
-        }
-        return influencers;
+        return new ArrayList<String>(this.influencerSet);
+    }
+
+    /*  Ritorna la lista degli utenti in this che sono seguiti da più di treshold
+        utenti, leggendola dalla classifica per numero di followers:
+        costo O(#risultato + log n)
+
+    @requires:  true
+    @effects:   Ritorna [i : i ∊ followers.keySet() && #{followers.get(i)} > treshold]
+                ordinata per numero di followers decrescente
+    */
+    public List<String> influencers(int treshold) {
+        return ranking().above(treshold);
+    }
+
+    /*  Ritorna i k utenti in this con più followers: costo O(k + log n)
+
+    @requires:  k >= 0
+    @throws:    Se k < 0 solleva IllegalArgumentException
+    @effects:   Ritorna i primi min(k, #{i : followers.get(i) != ∅}) utenti ordinati
+                per numero di followers decrescente (a parità in ordine alfabetico)
+    */
+    public List<String> topInfluencers(int k) throws IllegalArgumentException {
+        return ranking().top(k);
     }
 
     /*  Ritorna la lista (senza duplicati) degli utenti nella mappa passata come parametro
         che sono seguiti da più di likeTreshold utenti.
+        Le chiavi della mappa sono già distinte, quindi basta una scansione lineare;
+        per interrogare più volte la stessa mappa conviene costruire una FollowerRanking.
 
     @requires:  followers != null
     @throws:    Se followers == null solleva NullPointerException
@@ -452,24 +1829,38 @@ public class SocialNetwork {
         if (followers == null)
             throw new NullPointerException();
         List<String> influencers = new ArrayList<String>();
-        for (String user : followers.keySet()) {
-            if (!influencers.contains(user) && followers.get(user).size() > treshold) {
-                influencers.add(user);
+        for (Map.Entry<String, Set<String>> e : followers.entrySet()) {
+            if (e.getValue().size() > treshold) {
+                influencers.add(e.getKey());
             }
         }
         return influencers;
     }
 
+    /*  Ritorna i k utenti della mappa passata come parametro (ad esempio ottenuta
+        da guessFollowing) con più followers
+
+    @requires:  followers != null && k >= 0
+    @throws:    Se followers == null solleva NullPointerException
+                Se k < 0 solleva IllegalArgumentException
+    @effects:   Ritorna new FollowerRanking(followers).top(k)
+    */
+    public static List<String> topInfluencers(Map<String, Set<String>> followers, int k)
+            throws NullPointerException, IllegalArgumentException {
+        if (followers == null)
+            throw new NullPointerException();
+        return new FollowerRanking(followers).top(k);
+    }
+
     /*
-    Chiamo la funzione con parametro per determinare il Set di utenti
-    che sono autori di almeno un post in this
+    Gli autori di almeno un post in this sono esattamente le chiavi di byAuthor
 
     @requires:  true
     @effects:   ritorna
                 {posts.get(i).getAuthor() : 0 <= i < posts.size()}
     */
     public Set<String> getMentionedUsers() {
-        return getMentionedUsers(this.posts);
+        return new HashSet<String>(this.byAuthor.keySet());
     }
 
     /*
@@ -492,8 +1883,8 @@ public class SocialNetwork {
     }
 
     /*
-    Usa la funzione con parametro per ritornare la lista di post scritti da username
-    che sono presenti in this
+    Usa l'indice byAuthor per ritornare la lista di post scritti da username
+    che sono presenti in this, con costo proporzionale al numero di tali post
 
     @requires:  username != null
     @throws:    Se username == null solleva NullPointerException
@@ -504,9 +1895,39 @@ public class SocialNetwork {
                 ]
     */
     public List<Post> writtenBy(String username) throws NullPointerException {
+        return writtenBy(username, 0, Integer.MAX_VALUE);
+    }
+
+    /*
+    Versione paginata della precedente: scorre i post di username senza copiarli
+    tutti, quindi il costo è proporzionale a from + max
+
+    @requires:  username != null && from >= 0 && max >= 0
+    @throws:    Se username == null solleva NullPointerException
+                Se from < 0 o max < 0 solleva IllegalArgumentException
+    @effects:   Chiamo ws = writtenBy(username), ritorna
+                [ws.get(i) : from <= i < min(from + max, ws.size())]
+    */
+    public List<Post> writtenBy(String username, int from, int max)
+            throws NullPointerException, IllegalArgumentException {
         if (username == null)
             throw new NullPointerException();
-        return writtenBy(this.posts, username);
+        if (from < 0 || max < 0)
+            throw new IllegalArgumentException();
+        List<Post> postedBy = new ArrayList<Post>();
+        NavigableSet<Long> seqs = this.byAuthor.get(username);
+        if (seqs == null)
+            return postedBy;
+        int i = 0;
+        for (Long seq : seqs) {
+            if (postedBy.size() >= max)
+                break;
+            Post p = this.posts.get(seq);
+            // p == null se il post è stato rimosso da un altro thread durante la visita
+            if (p != null && i++ >= from)
+                postedBy.add(p);
+        }
+        return postedBy;
     }
 
     /*
@@ -534,13 +1955,303 @@ public class SocialNetwork {
         return postedBy;
     }
 
+    /*
+    Usa l'indice per data: il costo è O(log n + k), dove k è il numero di post ritornati
+
+    @requires:  from != null && to != null
+    @throws:    Se from == null o to == null solleva NullPointerException
+    @effects:   Ritorna la lista dei post p ∊ posts con from <= p.getTime() < to
+                in ordine di data (a parità di data, in ordine di inserimento)
+    */
+    public List<Post> postedBetween(Date from, Date to) throws NullPointerException {
+        return between(this.byTime, from, to);
+    }
+
+    /*
+    Come il precedente, ma con l'indice per data dei post di author
+
+    @requires:  author != null && from != null && to != null
+    @throws:    Se author == null, from == null o to == null solleva NullPointerException
+    @effects:   Ritorna la lista dei post p ∊ posts con p.getAuthor().equals(author)
+                e from <= p.getTime() < to, in ordine di data
+    */
+    public List<Post> postedBetween(String author, Date from, Date to) throws NullPointerException {
+        if (author == null || from == null || to == null)
+            throw new NullPointerException();
+        NavigableSet<TimeKey> times = this.authorTimes.get(author);
+        return times == null ? new ArrayList<Post>() : between(times, from, to);
+    }
+
+    // post di times con data in [from, to)
+    private static List<Post> between(NavigableSet<TimeKey> times, Date from, Date to) throws NullPointerException {
+        if (from == null || to == null)
+            throw new NullPointerException();
+        List<Post> res = new ArrayList<Post>();
+        long lo = from.getTime(), hi = to.getTime();
+        if (lo >= hi)
+            return res;
+        for (TimeKey t : times.subSet(new TimeKey(lo, Long.MIN_VALUE, null), true,
+                new TimeKey(hi, Long.MIN_VALUE, null), false)) {
+            res.add(t.post);
+        }
+        return res;
+    }
+
+    /*
+    Ritorna un iteratore sui post dal più recente al meno recente, senza copiarli:
+    come gli iteratori delle collezioni concorrenti non solleva
+    ConcurrentModificationException e può riflettere le modifiche successive
+
+    @requires:  true
+    @effects:   Ritorna un iteratore (che non supporta remove) sui post di posts
+                in ordine di data decrescente (a parità di data, dall'ultimo inserito)
+    */
+    public Iterator<Post> newestFirst() {
+        return posts(this.byTime.descendingIterator());
+    }
+
+    /*
+    @requires:  author != null
+    @throws:    Se author == null solleva NullPointerException
+    @effects:   Ritorna un iteratore come newestFirst() sui soli post di author
+    */
+    public Iterator<Post> newestFirst(String author) throws NullPointerException {
+        if (author == null)
+            throw new NullPointerException();
+        NavigableSet<TimeKey> times = this.authorTimes.get(author);
+        return posts(times == null ? Collections.<TimeKey>emptyIterator() : times.descendingIterator());
+    }
+
+    // i post delle chiavi di it
+    private static Iterator<Post> posts(Iterator<TimeKey> it) {
+        return new Iterator<Post>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Post next() {
+                return it.next().post;
+            }
+        };
+    }
+
+    /*
+    @requires:  n >= 0
+    @throws:    Se n < 0 solleva IllegalArgumentException
+    @effects:   Ritorna la lista dei min(n, posts.size()) post più recenti, dal più
+                recente, con costo O(log n + n) (vedi newestFirst())
+    */
+    public List<Post> latest(int n) throws IllegalArgumentException {
+        return first(newestFirst(), n);
+    }
+
+    /*
+    @requires:  author != null && n >= 0
+    @throws:    Se author == null solleva NullPointerException
+                Se n < 0 solleva IllegalArgumentException
+    @effects:   Ritorna la lista dei (al più n) post più recenti di author, dal più recente
+    */
+    public List<Post> latest(String author, int n) throws NullPointerException, IllegalArgumentException {
+        return first(newestFirst(author), n);
+    }
+
+    // i primi n elementi di it
+    private static List<Post> first(Iterator<Post> it, int n) throws IllegalArgumentException {
+        if (n < 0)
+            throw new IllegalArgumentException();
+        List<Post> res = new ArrayList<Post>(Math.min(n, 1024));
+        while (res.size() < n && it.hasNext()) {
+            res.add(it.next());
+        }
+        return res;
+    }
+
+    /*
+    Imposta il numero di followers oltre il quale un nuovo post non viene inviato
+    alle home timeline (fan-out in scrittura, costo proporzionale ai followers)
+    ma viene letto da homeTimeline (fan-out in lettura, costo proporzionale al
+    numero di tali autori seguiti). Vale per i post pubblicati dopo la chiamata
+
+    @requires:  threshold >= 0
+    @throws:    Se threshold < 0 solleva IllegalArgumentException
+    @modifies:  this
+    @effects:   fanOutThreshold = threshold
+    */
+    public void setFanOutThreshold(int threshold) throws IllegalArgumentException {
+        if (threshold < 0)
+            throw new IllegalArgumentException();
+        this.fanOutThreshold = threshold;
+    }
+
+    /*
+    Ritorna una pagina della home timeline di user, dal post più recente: i post
+    degli autori che user segue, aggiunti dopo che ha iniziato a seguirli (cioè
+    dopo il suo primo like a un loro post; se smette di seguirli i post spariscono).
+    Le due strade seguono la stessa regola: i post inviati a user quando sono stati
+    aggiunti (gli ultimi 800) e quelli letti al momento, cioè i post pubblicati da
+    autori con più di fanOutThreshold followers e i post che la rete contiene dalla
+    costruzione o da load, che non sono stati inviati a nessuno. Per una rete
+    costruita da una lista ogni arco presente vale per tutti i post della lista;
+    i registri riapplicati da MutationLog.replay ricostruiscono le timeline.
+    Il cursore è un limite superiore escluso: si parte da Long.MAX_VALUE e si passa
+    ogni volta page.getNext().
+    Il costo è O(800 + max) per la timeline più O(max log n) per ogni autore letto
+    al momento, più O(min(#following.get(user), #pulled)) per trovare questi autori
+    (O(#following.get(user)) se la rete contiene post costruiti o ricaricati):
+    non dipende dal numero di post degli autori seguiti.
+
+    @requires:  user != null && max >= 0
+    @throws:    Se user == null solleva NullPointerException
+                Se max < 0 solleva IllegalArgumentException
+    @effects:   Chiamata T = {p ∊ posts : p.getAuthor() ∊ following.get(user)
+                                && seq(p) >= since(user, p.getAuthor())},
+                dove since(l, a) = followSince.get(edgeKey(code(l), code(a))) se presente,
+                0 altrimenti, ritorna la pagina ([i primi max post di T con seq(p) < cursor,
+                per seq(p) decrescente], next) con next = seq(ultimo post della pagina),
+                oppure next = cursor se la pagina è vuota
+    */
+    public PostPage homeTimeline(String user, long cursor, int max)
+            throws NullPointerException, IllegalArgumentException {
+        if (user == null)
+            throw new NullPointerException();
+        if (max < 0)
+            throw new IllegalArgumentException();
+        List<Long> seqs = new ArrayList<Long>();
+        int u = this.graph.lookup(user);
+        // chi non ha mai messo like non segue nessuno
+        if (u == -1)
+            return new PostPage(List.of(), cursor);
+        Map<String, Long> since = new HashMap<String, Long>();
+        // i post inviati a user, saltando quelli rimossi nel frattempo e quelli di
+        // autori che user non segue più o ha iniziato a seguire dopo
+        HomeTimeline timeline = this.timelines.get(user);
+        if (timeline != null) {
+            long before = cursor;
+            int found = 0;
+            long[] chunk;
+            do {
+                chunk = timeline.before(before, max);
+                for (long seq : chunk) {
+                    Post p = this.posts.get(seq);
+                    if (found < max && p != null && seq >= since(u, p.getAuthor(), since)) {
+                        seqs.add(seq);
+                        found++;
+                    }
+                    before = seq;
+                }
+            } while (found < max && chunk.length == max && max > 0);
+        }
+        // i post non inviati, letti dagli indici degli autori seguiti: l'intersezione tra
+        // following e pulled si calcola scorrendo l'insieme più piccolo, ma i post
+        // costruiti o ricaricati (sotto pullBelow) possono essere di qualsiasi autore
+        Set<String> following = new UserSet(user, false);
+        long below = Math.min(cursor, this.pullBelow);
+        boolean byFollowing = below > 0 || following.size() <= this.pulled.size();
+        for (String author : byFollowing ? following : this.pulled.keySet()) {
+            long from = since(u, author, since);
+            // since è Long.MAX_VALUE se user non segue author
+            if (from == Long.MAX_VALUE)
+                continue;
+            NavigableSet<Long> unsent = this.pulled.get(author);
+            if (unsent != null)
+                take(unsent.headSet(cursor, false), from, max, seqs);
+            NavigableSet<Long> posted = below > 0 ? this.byAuthor.get(author) : null;
+            if (posted != null)
+                take(posted.headSet(below, false), from, max, seqs);
+        }
+        // fusione: un post inviato prima che l'autore superasse la soglia compare due volte
+        seqs.sort(Collections.reverseOrder());
+        List<Post> page = new ArrayList<Post>(Math.min(max, seqs.size()));
+        long next = cursor, last = -1;
+        for (long seq : seqs) {
+            if (page.size() >= max)
+                break;
+            Post p = seq == last ? null : this.posts.get(seq);
+            last = seq;
+            if (p != null) {
+                page.add(p);
+                next = seq;
+            }
+        }
+        return new PostPage(page, next);
+    }
+
+    /*
+    Primo numero d'ordine dei post di author che l'utente u vede nella home timeline:
+    since(u, author) se u segue author, Long.MAX_VALUE altrimenti. Il risultato
+    viene memorizzato in cache, così ogni autore è cercato una volta per pagina
+
+    @requires:  u ∊ dom(users) && author != null && cache != null
+    @modifies:  cache
+    */
+    private long since(int u, String author, Map<String, Long> cache) {
+        Long from = cache.get(author);
+        if (from != null)
+            return from;
+        from = Long.MAX_VALUE;
+        int a = this.graph.lookup(author);
+        if (a != -1) {
+            // following di u e followSince dei suoi archi si leggono tenendo la striscia di u
+            ReentrantLock lk = this.stripes[stripe(this.graph.name(u))];
+            lk.lock();
+            try {
+                if (this.graph.isFollowing(u, a))
+                    from = this.followSince.getOrDefault(edgeKey(u, a), 0L);
+            } finally {
+                lk.unlock();
+            }
+        }
+        cache.put(author, from);
+        return from;
+    }
+
+    // aggiunge a out i (al più max) numeri d'ordine più grandi di posted che sono >= from
+    private static void take(NavigableSet<Long> posted, long from, int max, List<Long> out) {
+        Iterator<Long> it = posted.descendingIterator();
+        for (int i = 0; i < max && it.hasNext(); i++) {
+            long seq = it.next();
+            if (seq < from)
+                return;
+            out.add(seq);
+        }
+    }
+
+    /*
+    Usa l'indice invertito: un post contiene una parola se essa compare tra le
+    parole del suo testo (vedi tokens), quindi ad esempio "Ecc" non compare
+    nel testo "Eccezionale". Per la ricerca di sottostringhe usare
+    containing(words, true).
+
+    @requires:  words != null
+                && (∀ i. 0 <= i < words.size() && words.get(i) != null)
+    @throws:    Se words == null
+                || (∃ i. 0 <= i < words.size() && words.get(i) == null)
+                allora solleva NullPointerException
+    @effects:   Ritorna la lista (senza duplicati) di p ∊ posts nel cui testo
+                compare almeno una parola tra quelle della lista words, ovvero
+
+                {posts.get(k) :
+                    0 <= k < posts.size()
+                    && ∃ j. 0 <= j < words.size()
+                        && words.get(j) ∊ tokens(posts.get(k).getText())
+                }
+
+                Il costo è proporzionale alla somma delle lunghezze delle liste
+                wordIndex.get(words.get(j)), non al numero di post nella rete
+    @returns:   List<Post>
+    */
+    public List<Post> containing(List<String> words) throws NullPointerException {
+        return containing(words, false);
+    }
+
     /*
     @requires:  words != null
                 && (∀ i. 0 <= i < words.size() && words.get(i) != null)
     @throws:    Se words == null
                 || (∃ i. 0 <= i < words.size() && words.get(i) == null)
                 allora solleva NullPointerException
-    @effects:   Ritorna la lista (senza duplicati) di p ∊ posts il cui testo
+    @effects:   Se substring == false ritorna containing(words).
+                Altrimenti ritorna la lista (senza duplicati) di p ∊ posts il cui testo
                 contiene almeno una parola tra quelle della lista words, ovvero
 
                 {posts.get(k) :
@@ -554,34 +2265,461 @@ public class SocialNetwork {
                         }
                 }
 
+                I post compaiono raggruppati per la prima parola di words che contengono,
+                nell'ordine di words, e in ordine di inserimento all'interno di ogni gruppo.
+
     Nota: Il fatto di aver considerato un insieme è solo per non ammettere
-    formalmente i duplicati: in realtà ritorna una lista come da specifica
+    formalmente i duplicati: in realtà ritorna una lista come da specifica.
+    Il testo di ogni post viene scandito una sola volta dall'automa costruito
+    su words (vedi WordMatcher), qualunque sia il numero di parole.
     @returns:   List<Post>
     */
-    public List<Post> containing(List<String> words) throws NullPointerException {
+    public List<Post> containing(List<String> words, boolean substring) throws NullPointerException {
         if (words == null)
             throw new NullPointerException();
-        List<Post> hasSome = new ArrayList<Post>();
+        if (substring) {
+            // solleva NullPointerException se una delle parole è null
+            WordMatcher matcher = WordMatcher.compile(words);
+            // byWord.get(j) contiene i post in cui la prima parola trovata è words.get(j)
+            List<List<Post>> byWord = new ArrayList<List<Post>>();
+            for (int j = 0; j < words.size(); j++) {
+                byWord.add(new ArrayList<Post>());
+            }
+            for (Post p : this.posts.values()) {
+                int first = matcher.firstMatch(p.getText());
+                if (first != -1) {
+                    byWord.get(first).add(p);
+                }
+            }
+            List<Post> hasSome = new ArrayList<Post>();
+            for (List<Post> group : byWord) {
+                hasSome.addAll(group);
+            }
+            return hasSome;
+        }
+        // un LinkedHashSet evita i duplicati in tempo costante mantenendo l'ordine
+        Set<Post> hasSome = new LinkedHashSet<Post>();
         for (String s : words) {
             if (s == null)
                 throw new NullPointerException();
-            for (Post p : this.posts) {
-                if (!hasSome.contains(p) && p.getText().contains(s)) {
-                    hasSome.add(p);
+            NavigableSet<Long> posting = this.wordIndex.get(s);
+            if (posting != null) {
+                // unione delle liste di post dell'indice invertito
+                for (Long seq : posting) {
+                    Post p = this.posts.get(seq);
+                    if (p != null)
+                        hasSome.add(p);
                 }
             }
         }
-        return hasSome;
+        return new ArrayList<Post>(hasSome);
+    }
+
+    /*
+    Ritorna i post di this memorizzati per colonne, per le analisi che li scorrono
+    tutti (vedi PostColumns). La rappresentazione viene ricalcolata solo se this è
+    stato modificato dall'ultima chiamata, altrimenti viene riusata.
+    Con modifiche concorrenti può riflettere solo in parte quelle in corso, come getPosts()
+
+    @requires:  true
+    @effects:   Ritorna c con AF_PostColumns(c) = [posts.get(i) : 0 <= i < posts.size()]
+    */
+    public PostColumns columns() {
+        Columns cached = this.columnsCache;
+        // leggo la versione prima di copiare i post: se nel frattempo la rete cambia,
+        // la copia resta associata alla versione vecchia e verrà ricalcolata
+        long v = this.version.get();
+        if (cached != null && cached.version == v)
+            return cached.columns;
+        cached = new Columns(v, new PostColumns(getPosts()));
+        this.columnsCache = cached;
+        return cached.columns;
+    }
+
+    /*
+    Acquisisce tutte le strisce, prima quelle dei post e poi quelle degli utenti
+    (l'ordine di lockUsers), e ritorna gli indici da passare a unlockAll
+
+    @requires:  il thread corrente non possiede strisce, oppure le possiede già tutte
+    @modifies:  this.postStripes, this.stripes
+    @effects:   Blocca tutte le strisce di this
+    */
+    private int[] lockAll() {
+        boolean[] all = new boolean[STRIPES];
+        Arrays.fill(all, true);
+        lock(this.postStripes, all);
+        return lock(this.stripes, all);
+    }
+
+    // rilascia le strisce acquisite da lockAll, in ordine inverso
+    private void unlockAll(int[] held) {
+        unlock(this.stripes, held);
+        unlock(this.postStripes, held);
+    }
+
+    /*
+    Salva this nel file nel formato binario di Snapshot: gli utenti, gli archi del
+    grafo con la loro molteplicità e i post con i loro like, in modo che load non
+    debba ricalcolare followers e following. Durante il salvataggio tiene tutte le
+    strisce dei post e degli utenti, quindi il file contiene uno stato di this che è esistito davvero
+
+    @requires:  file != null
+    @throws:    Se file == null solleva NullPointerException
+                Se la scrittura fallisce solleva IOException (e il file non viene modificato)
+    @effects:   Scrive nel file una rappresentazione di this da cui load(file)
+                ricostruisce una rete uguale
+    */
+    public void save(Path file) throws NullPointerException, IOException {
+        if (file == null)
+            throw new NullPointerException();
+        int[] held = lockAll();
+        try (Snapshot.Writer out = new Snapshot.Writer(file)) {
+            int users = this.graph.size();
+            // gli autori senza like non compaiono nel grafo: li aggiungo in fondo al dizionario
+            Map<String, Integer> extra = new LinkedHashMap<String, Integer>();
+            for (Post p : this.posts.values()) {
+                if (this.graph.lookup(p.getAuthor()) < 0)
+                    extra.putIfAbsent(p.getAuthor(), users + extra.size());
+            }
+            out.writeInt(users + extra.size());
+            for (int id = 0; id < users; id++) {
+                out.writeString(this.graph.name(id));
+            }
+            for (String a : extra.keySet()) {
+                out.writeString(a);
+            }
+            // load rinumera i post da 0: followSince va tradotto nel numero di post salvati che lo precedono
+            long[] seqs = new long[this.posts.size()];
+            int saved = 0;
+            for (long seq : this.posts.keySet()) {
+                seqs[saved++] = seq;
+            }
+            for (int l = 0; l < users; l++) {
+                int[] following = this.graph.following(l);
+                out.writeInt(following.length);
+                for (int a : following) {
+                    out.writeInt(a);
+                    out.writeInt(this.graph.multiplicity(l, a));
+                    Long since = this.followSince.get(edgeKey(l, a));
+                    long from = 0;
+                    if (since != null) {
+                        int pos = Arrays.binarySearch(seqs, since);
+                        from = pos >= 0 ? pos : -pos - 1;
+                    }
+                    out.writeLong(from);
+                }
+            }
+            for (int k = 0; k < extra.size(); k++) {
+                out.writeInt(0);
+            }
+            out.writeInt(this.posts.size());
+            for (Post p : this.posts.values()) {
+                int a = this.graph.lookup(p.getAuthor());
+                out.writeInt(p.getIntId());
+                out.writeInt(a >= 0 ? a : extra.get(p.getAuthor()));
+                out.writeLong(p.getTime());
+                out.writeString(p.getText());
+                String[] likes = p.getLikes().toArray(new String[0]);
+                out.writeInt(likes.length);
+                for (String l : likes) {
+                    out.writeInt(this.graph.lookup(l));
+                }
+                Boolean mark = snapshotMark(p);
+                out.writeByte(mark == null ? Snapshot.NO_MARK : mark ? Snapshot.MARKED : Snapshot.UNMARKED);
+            }
+            out.commit();
+        } finally {
+            unlockAll(held);
+        }
+    }
+
+    /*
+    Ricarica una rete salvata con save: il file viene letto tramite una mappatura in
+    memoria, il grafo viene ricostruito direttamente dagli archi salvati e i post
+    vengono indicizzati senza ricalcolare followers e following.
+    Gli indici derivati (parole dei testi, indici temporali e classifica dei follower)
+    non sono nel file e vengono ricostruiti: il costo di load resta quindi lineare
+    nella dimensione dei testi, e si risparmia solo il calcolo del grafo.
+    Gli id dei post ricaricati sono considerati non assegnati dall'allocatore, che
+    però viene portato oltre il più grande di essi (vedi IdAllocator.reserve): anche
+    in una nuova esecuzione publish non assegna id già presenti
+
+    @requires:  file != null
+    @throws:    Se file == null solleva NullPointerException
+                Se il file non può essere letto o non è stato scritto da save solleva IOException
+    @effects:   Ritorna una nuova rete uguale a quella salvata nel file
+    */
+    public static SocialNetwork load(Path file) throws NullPointerException, IOException {
+        SocialNetwork net = new SocialNetwork();
+        net.restore(file);
+        return net;
+    }
+
+    /*
+    @requires:  file != null && this è vuota e non visibile ad altri thread
+    @throws:    Se il file non può essere letto o non è stato scritto da save solleva IOException
+    @modifies:  this
+    @effects:   Rende this uguale alla rete salvata nel file e chiama onRestore per ogni post
+    */
+    protected void restore(Path file) throws NullPointerException, IOException {
+        if (file == null)
+            throw new NullPointerException();
+        try (Snapshot.Reader in = new Snapshot.Reader(file)) {
+            int users = in.readInt();
+            String[] names = new String[users];
+            for (int c = 0; c < users; c++) {
+                names[c] = in.readString();
+                // il grafo è vuoto: gli interi assegnati sono quelli del file
+                if (this.graph.intern(names[c]) != c)
+                    throw new IOException("Utente ripetuto nel file salvato: " + names[c]);
+            }
+            long maxSince = 0;
+            for (int l = 0; l < users; l++) {
+                for (int k = in.readInt(); k > 0; k--) {
+                    int a = user(in.readInt(), users);
+                    int count = in.readInt();
+                    if (count <= 0)
+                        throw new IOException("Molteplicità non valida: " + count);
+                    if (this.graph.addEdge(l, a, count))
+                        this.fingerprint.add(edgeHash(names[l], names[a]));
+                    long since = in.readLong();
+                    if (since < 0)
+                        throw new IOException("Inizio del follow non valido: " + since);
+                    maxSince = Math.max(maxSince, since);
+                    if (since > 0)
+                        this.followSince.put(edgeKey(l, a), since);
+                }
+            }
+            int n = in.readInt();
+            if (maxSince > n)
+                throw new IOException("Inizio del follow oltre l'ultimo post: " + maxSince);
+            List<Boolean> marks = new ArrayList<Boolean>(Math.max(0, n));
+            int maxId = -1;
+            for (long seq = 0; seq < n; seq++) {
+                int id = in.readInt();
+                maxId = Math.max(maxId, id);
+                String author = names[user(in.readInt(), users)];
+                long time = in.readLong();
+                String text = in.readString();
+                String[] likes = new String[in.readInt()];
+                for (int k = 0; k < likes.length; k++) {
+                    likes[k] = names[user(in.readInt(), users)];
+                }
+                byte mark = in.readByte();
+                Set<String> likeSet;
+                try {
+                    likeSet = Set.of(likes);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("Like ripetuto nel post salvato " + id);
+                }
+                Post p = new Post(id, author, text, time, likeSet);
+                Slot slot = new Slot(seq, p);
+                if (this.byId.putIfAbsent(id, slot) != null)
+                    throw new IOException("Post ripetuto nel file salvato: " + id);
+                this.posts.put(seq, p);
+                this.fingerprint.add(postHash(id));
+                indexText(p, seq);
+                marks.add(mark == Snapshot.NO_MARK ? null : mark == Snapshot.MARKED);
+            }
+            // gli id possono essere stati assegnati in un'altra esecuzione: l'allocatore
+            // non deve ritornarli di nuovo, altrimenti il primo publish fallirebbe
+            if (maxId >= 0)
+                Post.reserveId(maxId);
+            this.foreignIds = n > 0;
+            rankAll();
+            this.nextSeq.set(n);
+            this.lowWater.set(n);
+            // le timeline non sono nel file: i post ricaricati vengono letti al momento
+            this.pullBelow = n;
+            this.version.incrementAndGet();
+            int i = 0;
+            for (Post p : this.posts.values()) {
+                onRestore(p, marks.get(i++));
+            }
+        }
+    }
+
+    // controlla che c sia l'intero di uno degli users utenti del file
+    private static int user(int c, int users) throws IOException {
+        if (c < 0 || c >= users)
+            throw new IOException("Utente non valido nel file salvato: " + c);
+        return c;
+    }
+
+    /*
+    Associa a this un registro in cui addPost, publish, likePost, rmPost e le
+    versioni su lotti accodano ogni modifica eseguita (vedi MutationLog). Il registro
+    contiene solo le modifiche successive: lo stato attuale di this va salvato prima,
+    ad esempio con checkpoint. Con log == null le modifiche non vengono più registrate.
+    Se il registro è chiuso o non può più scrivere, le operazioni sollevano
+    IllegalStateException o UncheckedIOException prima di modificare this; con GROUP
+    un errore di scrittura successivo alla modifica viene segnalato al ritorno con
+    UncheckedIOException, e la modifica resta applicata
+
+    @requires:  nessun altro thread sta modificando this
+    @modifies:  this
+    @effects:   Usa log come registro delle modifiche successive di this
+    */
+    public void setLog(MutationLog log) {
+        this.log = log;
+    }
+
+    // true se this ha un registro (MutationLog.replay non deve registrare le modifiche che applica)
+    boolean hasLog() {
+        return this.log != null;
+    }
+
+    /*
+    Salva this nel file (come save) e poi svuota il registro, le cui modifiche sono
+    ormai contenute nel file: dopo un riavvio la rete si ricostruisce con load(file)
+    seguito da MutationLog.replay del registro. Tiene tutte le strisce fino alla fine,
+    quindi nessuna modifica può finire nel registro già svuotato senza essere nel file
+
+    @requires:  file != null
+    @throws:    Se file == null solleva NullPointerException
+                Se la scrittura del file o lo svuotamento del registro falliscono solleva IOException
+    @modifies:  this
+    @effects:   Esegue save(file) e svuota il registro di this (se c'è)
+    */
+    public void checkpoint(Path file) throws NullPointerException, IOException {
+        if (file == null)
+            throw new NullPointerException();
+        int[] held = lockAll();
+        try {
+            save(file);
+            MutationLog l = this.log;
+            if (l != null)
+                l.truncate();
+        } finally {
+            unlockAll(held);
+        }
+    }
+
+    /*
+    Metodi usati da MutationLog.replay per riapplicare le modifiche registrate, con
+    this non visibile ad altri thread e senza registro. Il registro può contenere
+    modifiche precedenti all'ultimo salvataggio, quindi quelle già contenute in this
+    vengono saltate: un post già presente non viene reinserito, un like già presente
+    non viene aggiunto e un like o una rimozione di un post non presente (rimosso
+    prima del salvataggio) non hanno effetto. Un post reinserito conserva il numero
+    d'ordine registrato, se è ancora libero, così l'ordine dei post è quello della
+    rete originale, e l'allocatore viene portato oltre il suo id (vedi IdAllocator.reserve)
+
+    @requires:  p != null && !hasLog() && nessun altro thread sta usando this
+    @throws:    replayLike solleva IOException se il like è dell'autore del post
+    @modifies:  this
+    */
+    void replayAdd(long seq, Post p) {
+        int id = p.getIntId();
+        if (id >= 0)
+            Post.reserveId(id);
+        if (this.byId.containsKey(id))
+            return;
+        if (seq < 0 || this.posts.containsKey(seq))
+            seq = this.nextSeq.getAndIncrement();
+        this.lowWater.set(this.nextSeq.accumulateAndGet(seq + 1, Math::max));
+        this.foreignIds = true;
+        this.byId.put(p.getIntId(), new Slot(seq, p));
+        this.posts.put(seq, p);
+        this.fingerprint.add(postHash(p.getIntId()));
+        indexPost(p, seq, p.getLikes());
+        this.version.incrementAndGet();
+        onAdd(p);
+        // le timeline si ricostruiscono riapplicando le modifiche nell'ordine originale
+        fanOut(p);
+    }
+
+    void replayLike(int pid, String liker) throws IOException {
+        Slot slot = this.byId.get(pid);
+        if (slot == null)
+            return;
+        try {
+            if (slot.post.addLike(liker))
+                liked(slot.post, liker);
+        } catch (SelfLikeException ex) {
+            throw new IOException("Like registrato dell'autore del post " + pid, ex);
+        }
+    }
+
+    void replayRemove(int pid) {
+        Slot slot = this.byId.get(pid);
+        if (slot == null)
+            return;
+        remove(pid, slot);
+    }
+
+    /*
+    Ritorna una pagina di al più max post a partire dal cursore cursor, senza copiare
+    la lista dei post: il costo è proporzionale a max. Il cursore è un numero d'ordine:
+    per leggere tutti i post si parte da 0 e si passa ogni volta page.getNext().
+    Con modifiche concorrenti una pagina non va mai oltre i post che un altro thread
+    sta ancora inserendo, quindi nessun post aggiunto dopo cursor viene saltato,
+    e un post rimosso non sposta gli altri
+
+    @requires:  cursor >= 0 && max >= 0
+    @throws:    Se cursor < 0 o max < 0 solleva IllegalArgumentException
+    @effects:   Ritorna la pagina ([posts.get(i) : seq(posts.get(i)) >= cursor] limitata ai
+                primi max post, next) dove next = seq(ultimo post della pagina) + 1,
+                oppure next = cursor se la pagina è vuota
+    */
+    public PostPage getPosts(long cursor, int max) throws IllegalArgumentException {
+        if (cursor < 0 || max < 0)
+            throw new IllegalArgumentException();
+        long bound = published();
+        List<Post> page = new ArrayList<Post>(Math.min(max, 1024));
+        long next = cursor;
+        if (cursor < bound) {
+            for (Map.Entry<Long, Post> e : this.posts.subMap(cursor, true, bound, false).entrySet()) {
+                if (page.size() >= max)
+                    break;
+                page.add(e.getValue());
+                next = e.getKey() + 1;
+            }
+        }
+        return new PostPage(page, next);
+    }
+
+    /*
+    Cerca un post per id nell'indice byId, senza scorrere la lista: costo O(1)
+
+    @requires:  pid != null
+    @throws:    Se pid == null solleva NullPointerException
+                Se nessun post di this ha id pid solleva NoSuchPostException
+    @effects:   Ritorna il post p ∊ posts tale che p.getId().equals(pid)
+    */
+    public Post getPost(Integer pid) throws NullPointerException, NoSuchPostException {
+        if (pid == null)
+            throw new NullPointerException();
+        Slot slot = this.byId.get(pid);
+        if (slot == null)
+            throw new NoSuchPostException();
+        return slot.post;
     }
 
     /*
-    Ritorna una copia della lista di post (non modificabile)
+    Ritorna una copia della lista di post (non modificabile): per scorrere i post
+    senza copiarli tutti usare getPosts(cursor, max)
 
     @requires:  true
     @effects:   [posts.get(i) : 0 <= i < posts.size()]
     */
     public List<Post> getPosts() {
-        return List.copyOf(this.posts);
+        return List.copyOf(this.posts.values());
+    }
+
+    /*
+    Ritorna un'impronta della rete che non dipende dall'ordine dei post né da quello
+    in cui sono stati messi i like: la somma (modulo 2^64) di un hash dell'id di ogni
+    post e di un hash dei nomi degli estremi di ogni arco. Viene aggiornata ad ogni
+    modifica, quindi il costo è O(1). Reti uguali (vedi equals) hanno la stessa
+    impronta, mentre reti con la stessa impronta possono essere diverse
+
+    @requires:  true
+    @effects:   Ritorna Σ {postHash(p.getId()) : p ∊ posts}
+                + Σ {edgeHash(l, a) : l ∊ following.keySet() && a ∊ following.get(l)}
+    */
+    public long fingerprint() {
+        return this.fingerprint.sum();
     }
 
     /*  sovrascrivo il metodo equals per confrontare istanze di SocialNetwork
@@ -599,32 +2737,40 @@ public class SocialNetwork {
                     && followers.get(i).equals(other.followers.get(i))
                     )
                 && posts.equals(other.getPosts())
+                Se le impronte sono diverse (vedi fingerprint) le reti non possono essere
+                uguali e il risultato è false senza confrontare i post e le mappe
     */
     public boolean equals(SocialNetwork other) {
         if (other == null)
             return false;
-        // mi creo copie delle mappe e dei post tramite gli appositi metodi
-        List<Post> otherPosts = other.getPosts();
-        /**
-        L'apparente incongruenza dei nomi delle variabili deriva dal fatto che
-        guessFollowing ritorna la mappa {utente} → {utenti che lo seguono}
-        e guessFollowers ritorna la mappa {utente} → {utenti che segue}
-        */
-        Map<String, Set<String>> otherFollowers = other.guessFollowing(otherPosts);
-        Map<String, Set<String>> otherFollowing = other.guessFollowers(otherPosts);
-
-        // devono essere presenti gli stessi post
-        if (!this.posts.equals(otherPosts))
+        if (this.fingerprint() != other.fingerprint())
+            return false;
+        // le mappe di other sono viste sul suo grafo, che per l'IR corrisponde ai suoi post
+        Map<String, Set<String>> otherFollowers = other.getFollowers();
+        Map<String, Set<String>> otherFollowing = other.getFollowing();
+
+        // devono essere presenti gli stessi post, nello stesso ordine: li confronto con
+        // Post.equals(Post) (stesso id), non per riferimento come farebbe List.equals,
+        // così anche una rete ricaricata da un file (vedi load) risulta uguale.
+        // Scorro i post delle due reti insieme, senza copiarli
+        if (this.byId.size() != other.byId.size())
+            return false;
+        Iterator<Post> mine = this.posts.values().iterator(), theirs = other.posts.values().iterator();
+        while (mine.hasNext() && theirs.hasNext()) {
+            if (!mine.next().equals(theirs.next()))
+                return false;
+        }
+        if (mine.hasNext() || theirs.hasNext())
             return false;
 
         // le mappe devono corrispondere sia nel dominio che nel codominio
-        for (String liker : this.following.keySet()) {
-            if (!otherFollowing.containsKey(liker) || !this.following.get(liker).equals(otherFollowing.get(liker))) {
+        for (Map.Entry<String, Set<String>> e : this.getFollowing().entrySet()) {
+            if (!otherFollowing.containsKey(e.getKey()) || !e.getValue().equals(otherFollowing.get(e.getKey()))) {
                 return false;
             }
         }
-        for (String liked : this.followers.keySet()) {
-            if (!otherFollowers.containsKey(liked) || !this.followers.get(liked).equals(otherFollowers.get(liked))) {
+        for (Map.Entry<String, Set<String>> e : this.getFollowers().entrySet()) {
+            if (!otherFollowers.containsKey(e.getKey()) || !e.getValue().equals(otherFollowers.get(e.getKey()))) {
                 return false;
             }
         }
@@ -632,6 +2778,189 @@ public class SocialNetwork {
         return true;
     }
 
+    /*
+    Verifica l'invariante di rappresentazione ricalcolando dai post presenti gli
+    archi con i loro contatori e gli indici. Serve ai test, ad esempio dopo
+    un'esecuzione con più thread (vedi ConcurrentTest)
+
+    @requires:  nessun altro thread sta modificando this
+    @effects:   Ritorna true se e solo se IR(this) è verificato
+    */
+    public boolean repOk() {
+        // indice primario e lista ordinata devono contenere gli stessi post
+        if (this.byId.size() != this.posts.size())
+            return false;
+        for (Map.Entry<Integer, Slot> e : this.byId.entrySet()) {
+            Slot slot = e.getValue();
+            if (slot.post.getIntId() != e.getKey() || this.posts.get(slot.seq) != slot.post
+                    || slot.seq >= this.nextSeq.get())
+                return false;
+            if (!slot.post.hasGeneratedId() && !this.foreignIds)
+                return false;
+        }
+        // ricalcolo le molteplicità degli archi e gli indici a partire dai post
+        Map<String, Map<String, Integer>> counts = new HashMap<String, Map<String, Integer>>();
+        Map<String, Set<Long>> words = new HashMap<String, Set<Long>>();
+        Map<String, Set<Long>> authors = new HashMap<String, Set<Long>>();
+        for (Map.Entry<Long, Post> e : this.posts.entrySet()) {
+            Post p = e.getValue();
+            for (String like : p.getLikes()) {
+                counts.computeIfAbsent(like, k -> new HashMap<String, Integer>()).merge(p.getAuthor(), 1, Integer::sum);
+            }
+            for (String w : tokens(p.getText())) {
+                words.computeIfAbsent(w, k -> new HashSet<Long>()).add(e.getKey());
+            }
+            authors.computeIfAbsent(p.getAuthor(), k -> new HashSet<Long>()).add(e.getKey());
+        }
+        if (!this.wordIndex.equals(words) || !this.byAuthor.equals(authors))
+            return false;
+        // gli indici per data devono contenere esattamente i post presenti, con la loro data
+        if (this.byTime.size() != this.byId.size() || !this.authorTimes.keySet().equals(authors.keySet()))
+            return false;
+        for (TimeKey t : this.byTime) {
+            if (this.posts.get(t.seq) != t.post || t.post.getTime() != t.time)
+                return false;
+        }
+        for (Map.Entry<String, NavigableSet<TimeKey>> e : this.authorTimes.entrySet()) {
+            if (e.getValue().size() != authors.get(e.getKey()).size())
+                return false;
+            for (TimeKey t : e.getValue()) {
+                if (!this.byTime.contains(t) || !t.post.getAuthor().equals(e.getKey()))
+                    return false;
+            }
+        }
+        // ogni arco ricalcolato deve essere nel grafo con la stessa molteplicità, in entrambe le direzioni
+        int edges = 0;
+        long print = 0;
+        for (Integer id : this.byId.keySet()) {
+            print += postHash(id);
+        }
+        for (Map.Entry<String, Map<String, Integer>> e : counts.entrySet()) {
+            int l = this.graph.lookup(e.getKey());
+            if (l == -1)
+                return false;
+            for (Map.Entry<String, Integer> c : e.getValue().entrySet()) {
+                int a = this.graph.lookup(c.getKey());
+                if (a == -1 || this.graph.multiplicity(l, a) != c.getValue() || !this.graph.isFollowedBy(a, l))
+                    return false;
+                print += edgeHash(e.getKey(), c.getKey());
+            }
+            edges += e.getValue().size();
+        }
+        // l'impronta aggiornata ad ogni modifica deve coincidere con quella ricalcolata
+        if (this.fingerprint.sum() != print)
+            return false;
+        // i post letti al momento sono post presenti del loro autore, gli inizi dei follow sono di archi presenti
+        for (Map.Entry<String, NavigableSet<Long>> e : this.pulled.entrySet()) {
+            if (e.getValue().isEmpty() || !authors.getOrDefault(e.getKey(), Set.of()).containsAll(e.getValue()))
+                return false;
+        }
+        if (this.pullBelow < 0 || this.pullBelow > this.nextSeq.get())
+            return false;
+        int started = 0;
+        for (int l = 0; l < this.graph.size(); l++) {
+            for (int a : this.graph.following(l)) {
+                Long since = this.followSince.get(edgeKey(l, a));
+                if (since != null && since > this.nextSeq.get())
+                    return false;
+                if (since != null)
+                    started++;
+            }
+        }
+        if (started != this.followSince.size())
+            return false;
+        // e il grafo non deve contenere altri archi
+        int out = 0, in = 0, ranked = 0;
+        FollowerRanking ranking = ranking();
+        Set<String> infl = new HashSet<String>();
+        for (int id = 0; id < this.graph.size(); id++) {
+            String user = this.graph.name(id);
+            int nFollowers = this.graph.followerCount(id);
+            out += this.graph.followingCount(id);
+            in += nFollowers;
+            // la classifica e gli influencer devono corrispondere ai gradi del grafo
+            if (ranking.count(user) != nFollowers)
+                return false;
+            if (nFollowers > 0)
+                ranked++;
+            if (nFollowers > this.graph.followingCount(id))
+                infl.add(user);
+        }
+        return out == edges && in == edges && ranking.size() == ranked && this.influencerSet.equals(infl);
+    }
+
+    /*
+    Scrive in out la rappresentazione di this un pezzo alla volta (un post o un utente),
+    senza costruirla prima in memoria: il costo è lineare nella lunghezza dell'output
+    e la memoria usata non dipende dalla dimensione della rete.
+    Con maxPosts vengono scritti solo i primi maxPosts post, seguiti dal numero di
+    quelli omessi; con users != null le righe di followers e following sono solo quelle
+    degli utenti di users (ad esempio quelli modificati dall'ultima operazione), nell'ordine di users
+
+    @requires:  out != null && maxPosts >= 0
+    @throws:    Se out == null solleva NullPointerException
+                Se maxPosts < 0 solleva IllegalArgumentException
+                Se la scrittura su out fallisce solleva IOException
+    @modifies:  out
+    @effects:   Con maxPosts >= posts.size() e users == null scrive in out lo stesso testo
+                ritornato da toString(); altrimenti lo limita come descritto sopra
+    */
+    public void print(Appendable out, int maxPosts, Collection<String> users)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        if (out == null)
+            throw new NullPointerException();
+        if (maxPosts < 0)
+            throw new IllegalArgumentException();
+        out.append("(\n[\n");
+        int shown = 0;
+        for (Post p : this.posts.values()) {
+            if (shown == maxPosts)
+                break;
+            out.append('\t').append(p.toString());
+            shown++;
+        }
+        int omitted = this.byId.size() - shown;
+        if (shown == maxPosts && omitted > 0)
+            out.append("\t... (altri ").append(Integer.toString(omitted)).append(" post)\n");
+        out.append("]\n,\n");
+        Map<String, Set<String>> followers = this.getFollowers();
+        if (users == null) {
+            for (Map.Entry<String, Set<String>> e : followers.entrySet()) {
+                printUser(out, "followers", e.getKey(), e.getValue());
+            }
+        } else {
+            for (String u : users) {
+                printUser(out, "followers", u, followers.get(u));
+            }
+        }
+        out.append(",\n");
+        Map<String, Set<String>> following = this.getFollowing();
+        if (users == null) {
+            for (Map.Entry<String, Set<String>> e : following.entrySet()) {
+                printUser(out, "following", e.getKey(), e.getValue());
+            }
+        } else {
+            for (String u : users) {
+                printUser(out, "following", u, following.get(u));
+            }
+        }
+        out.append(")\n");
+    }
+
+    // scrive la riga "name(user) = [u_1, ..., u_k]" se set non è vuoto, un elemento alla volta
+    private static void printUser(Appendable out, String name, String user, Set<String> set) throws IOException {
+        if (set == null)
+            return;
+        Iterator<String> it = set.iterator();
+        if (!it.hasNext())
+            return;
+        out.append(name).append('(').append(user).append(") = [").append(it.next());
+        while (it.hasNext()) {
+            out.append(", ").append(it.next());
+        }
+        out.append("]\n");
+    }
+
     /*
     Sovrascrivo il metodo toString
 
@@ -640,24 +2969,13 @@ public class SocialNetwork {
                 rappresenta questa istanza di SocialNetwork, come specificato dalla AF
     */
     public String toString() {
-        String s = new String();
-
-        s += "(\n[\n";
-        for (Post p : this.posts) {
-            s += "\t" + p.toString();
+        StringBuilder s = new StringBuilder();
+        try {
+            print(s, Integer.MAX_VALUE, null);
+        } catch (IOException ex) {
+            // StringBuilder non solleva IOException
+            throw new UncheckedIOException(ex);
         }
-        s += "]\n,\n";
-        for (String user : this.followers.keySet()) {
-            if (!this.followers.get(user).isEmpty())
-                s += "followers(" + user + ") = " + this.followers.get(user).toString() + "\n";
-        }
-        s += ",\n";
-        for (String user : this.following.keySet()) {
-            if (!this.following.get(user).isEmpty())
-                s += "following(" + user + ") = " + this.following.get(user).toString() + "\n";
-        }
-        s += ")\n";
-
-        return s;
+        return s.toString();
     }
 };
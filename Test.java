@@ -1,13 +1,23 @@
 
 /* testa la classe Post */
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Scanner;
 import java.util.Set;
 
 class Test {
@@ -15,11 +25,11 @@ class Test {
         Il main crea delle istanze di Post a partire da dati letti dal file
         fornito come argomento al programma, le stampa. Dopo aggiungo dei like e stampo di nuovo i post creati.
     */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         SocialNetwork MicroBlog = new SocialNetwork();
 
-        /* Creo uno Scanner che legge da stdin */
-        Scanner s = new Scanner(System.in);
+        /* Creo un PostLoader che legge da stdin */
+        PostLoader s = new PostLoader(Channels.newChannel(System.in));
 
         /* leggo una lista di Post dal file */
         ArrayList<Post> pList = PostReader(s);
@@ -39,21 +49,40 @@ class Test {
         int j;
         for (i = 0; i < pList.size(); i++) {
             for (j = i + 1; j < pList.size(); j++) {
-                assert pList.get(i).getId() != pList.get(j).getId();
+                assert !pList.get(i).getId().equals(pList.get(j).getId());
             }
-            assert (pList.get(i).getLikes().contains(pList.get(i).getAuthor()) == false)
-                    && (pList.get(i).getText().length() <= 140);
+            assert (pList.get(i).isLikedBy(pList.get(i).getAuthor()) == false)
+                    && (pList.get(i).getText().length() <= 140)
+                    && (pList.get(i).likeCount() == pList.get(i).getLikes().size());
         }
 
+        /*  un post con molti like: oltre i primi l'insieme viene modificato sul posto,
+            getLikes() resta non modificabile e likeCount() conta tutti i like */
+        SocialNetwork viral = new SocialNetwork();
+        Post star = viral.publish("Star", "virale", new Date());
+        Set<String> starLikes = star.getLikes();
+        for (int k = 0; k < 100; k++) {
+            viral.likePost(star.getIntId(), "Fan" + k);
+        }
+        assert star.likeCount() == 100 && star.getLikes().size() == 100 && star.isLikedBy("Fan99")
+                && starLikes.isEmpty() && star.getIntId() == star.getId() && viral.repOk();
+        try {
+            star.getLikes().add("Intruso");
+            assert false;
+        } catch (UnsupportedOperationException ex) {
+            // getLikes() non è modificabile
+        }
+        viral.rmPost(star.getId());
+        assert viral.getFollowing().isEmpty() && viral.repOk();
+
         /* aggiungo dei like ad alcuni post (utenti che mettono like sono letti nel file di test) */
         System.out.println("***Test addLike()***");
         Random rng = new Random();
         String liker;
         if (pList.size() > 0) {
-            while (!s.hasNext("fine")) {
+            while ((liker = s.nextEntry()) != null) {
                 // scelgo a caso un indice della lista (quindi un post)
                 j = rng.nextInt(pList.size());
-                liker = s.nextLine();
                 // uso il metodo addLike(), che potrebbe sollevare eccezioni
                 try {
                     pList.get(j).addLike(liker);
@@ -62,7 +91,6 @@ class Test {
                     System.out.println("Caught: " + ex);
                 }
             }
-            s.skip("fine\n");
         }
 
         System.out.println("***lista di post + like***");
@@ -79,6 +107,18 @@ class Test {
         /* stampo la rete sociale per testare toString() */
         System.out.println("***MicroBlog***\n" + MicroBlog.toString());
 
+        /* print scrive lo stesso testo un pezzo alla volta, e con i limiti solo una parte */
+        StringWriter dump = new StringWriter();
+        MicroBlog.print(dump, Integer.MAX_VALUE, null);
+        assert dump.toString().equals(MicroBlog.toString());
+        List<Post> shown = MicroBlog.getPosts();
+        if (shown.size() > 1) {
+            StringBuilder head = new StringBuilder();
+            MicroBlog.print(head, 1, List.of(shown.get(0).getAuthor()));
+            assert head.toString().contains("altri " + (shown.size() - 1) + " post")
+                    && head.length() < dump.toString().length();
+        }
+
         /* creo una seconda rete vuota */
         SocialNetwork net2 = new SocialNetwork();
 
@@ -98,8 +138,19 @@ class Test {
             System.out.println("caught: " + ex);
         }
 
-        /* perciò ora devono risultare uguali */
-        assert MicroBlog.equals(net2);
+        /* scorro net2 a pagine di due post: devo ritrovare tutti i post nell'ordine di getPosts() */
+        List<Post> pages = new ArrayList<Post>();
+        PostPage page = net2.getPosts(0, 2);
+        while (!page.isEmpty()) {
+            assert page.getPosts().size() <= 2;
+            pages.addAll(page.getPosts());
+            page = net2.getPosts(page.getNext(), 2);
+        }
+        assert pages.equals(net2.getPosts()) && net2.getPosts(page.getNext(), 2).isEmpty();
+
+        /* perciò ora devono risultare uguali, con la stessa impronta */
+        assert MicroBlog.equals(net2) && MicroBlog.fingerprint() == net2.fingerprint() && net2.repOk();
+        assert new SocialNetwork().fingerprint() == 0;
 
         /*  voglio provocare un conflitto di id in MicroBlog, 
             che deve sollevare DuplicatePostException */
@@ -141,10 +192,51 @@ class Test {
             System.out.println("caught: " + ex + "\nOk, eccezione sollevata e gestita");
         }
 
+        /* getPost trova per id i post presenti e non quelli rimossi */
+        for (Post p : MicroBlog.getPosts()) {
+            assert MicroBlog.getPost(p.getId()) == p;
+        }
+        try {
+            net2.getPost(pList.size() > 0 ? pList.get(0).getId() : -1);
+            assert false;
+        } catch (NoSuchPostException ex) {
+        }
+
         /* quindi net2 deve risultare vuota e diversa da MicroBlog */
         assert net2.getPosts().size() == 0 && net2.getMentionedUsers().size() == 0
                 && !(MicroBlog.getPosts().size() > 0 && MicroBlog.equals(net2));
-                
+
+        /* le operazioni su lotti non sollevano eccezioni: gli errori sono nel risultato */
+        System.out.println("***Test addPosts(), likePosts() e rmPosts()***");
+        BatchResult added = net2.addPosts(pList);
+        System.out.println("addPosts: " + added);
+        assert added.failures() == 0 && MicroBlog.equals(net2) && net2.repOk();
+        // reinserire lo stesso lotto dà solo duplicati e non modifica net2
+        List<Post> again = new ArrayList<Post>(pList);
+        again.add(null);
+        BatchResult dup = net2.addPosts(again);
+        assert dup.failures() == again.size() && dup.get(again.size() - 1) == BatchResult.Outcome.NULL
+                && MicroBlog.equals(net2);
+        if (pList.size() > 0) {
+            Post first = pList.get(0);
+            List<Map.Entry<Integer, String>> likes = new ArrayList<Map.Entry<Integer, String>>();
+            likes.add(Map.entry(first.getId(), first.getAuthor()));
+            likes.add(Map.entry(-1, "Nessuno"));
+            likes.add(null);
+            BatchResult liked = net2.likePosts(likes);
+            System.out.println("likePosts: " + liked);
+            assert liked.get(0) == BatchResult.Outcome.SELF_LIKE && liked.get(1) == BatchResult.Outcome.NO_SUCH_POST
+                    && liked.get(2) == BatchResult.Outcome.NULL && MicroBlog.equals(net2);
+        }
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Post p : pList) {
+            ids.add(p.getId());
+        }
+        ids.add(-1);
+        BatchResult removed = net2.rmPosts(ids);
+        System.out.println("rmPosts: " + removed);
+        assert removed.failed().equals(List.of(ids.size() - 1)) && net2.getPosts().size() == 0 && net2.repOk();
+
         /* stampo influencers di MicroBlog */
         System.out.println("***Influencers di MicroBlog***\n" + MicroBlog.influencers());
 
@@ -155,6 +247,25 @@ class Test {
         Map<String, Set<String>> followersOnList = MicroBlog.guessFollowing(pList);
         System.out.println("Data la lista di post pList\nSet di utenti per cui #{followers di user} > " + treshold
                 + " = " + SocialNetwork.influencers(followersOnList, treshold));
+        // la classifica per numero di followers deve dare lo stesso insieme di utenti
+        assert new HashSet<String>(new FollowerRanking(followersOnList).above(treshold))
+                .equals(new HashSet<String>(SocialNetwork.influencers(followersOnList, treshold)));
+        System.out.println("I 3 utenti con più followers in MicroBlog = " + MicroBlog.topInfluencers(3));
+
+        /*  la rappresentazione per colonne deve dare gli stessi risultati delle
+            analisi sulla lista di post, e finché MicroBlog non cambia viene riusata */
+        PostColumns cols = new PostColumns(pList);
+        assert cols.followers().equals(MicroBlog.guessFollowing(pList));
+        assert cols.following().equals(MicroBlog.guessFollowers(pList));
+        assert cols.mentionedUsers().equals(MicroBlog.getMentionedUsers(pList));
+        for (i = 0; i < cols.size(); i++) {
+            Post copy = cols.post(i);
+            assert copy.getId().equals(pList.get(i).getId()) && copy.getTime() == pList.get(i).getTime()
+                    && copy.getAuthor().equals(pList.get(i).getAuthor()) && copy.getText().equals(pList.get(i).getText())
+                    && copy.getLikes().equals(pList.get(i).getLikes());
+            assert cols.writtenBy(pList.get(i).getAuthor()).size() == MicroBlog.writtenBy(pList, pList.get(i).getAuthor()).size();
+        }
+        assert MicroBlog.columns() == MicroBlog.columns() && MicroBlog.columns().size() == MicroBlog.getPosts().size();
 
         /* stampo la mappa di followers e following indotte dalla lista di post */
         System.out.println("***test guessFollowers() con stessa lista***");
@@ -176,12 +287,36 @@ class Test {
         for (Post p : pList) {
             assert MicroBlog.writtenBy(pList, p.getAuthor()).equals(MicroBlog.writtenBy(p.getAuthor()));
             assert MicroBlog.getMentionedUsers(pList).equals(MicroBlog.getMentionedUsers());
+            // la versione paginata ritorna una porzione della lista completa
+            List<Post> all = MicroBlog.writtenBy(p.getAuthor());
+            assert MicroBlog.writtenBy(p.getAuthor(), 1, 1).equals(all.subList(Math.min(1, all.size()), Math.min(2, all.size())));
         }
 
+        /*  gli indici per data devono dare gli stessi post di un ordinamento della lista
+            (il sort è stabile: a parità di data resta l'ordine di inserimento) */
+        List<Post> byDate = new ArrayList<Post>(MicroBlog.getPosts());
+        byDate.sort((p, q) -> Long.compare(p.getTime(), q.getTime()));
+        assert MicroBlog.postedBetween(new Date(Long.MIN_VALUE), new Date(Long.MAX_VALUE)).equals(byDate);
+        List<Post> newest = new ArrayList<Post>(byDate);
+        Collections.reverse(newest);
+        assert MicroBlog.latest(3).equals(newest.subList(0, Math.min(3, newest.size())));
+        if (!byDate.isEmpty()) {
+            Post oldest = byDate.get(0);
+            Date t = new Date(oldest.getTime());
+            assert MicroBlog.postedBetween(t, t).isEmpty() && MicroBlog.postedBetween(t, new Date(oldest.getTime() + 1)).contains(oldest);
+            List<Post> mine = new ArrayList<Post>(MicroBlog.writtenBy(oldest.getAuthor()));
+            mine.sort((p, q) -> Long.compare(q.getTime(), p.getTime()));
+            assert MicroBlog.latest(oldest.getAuthor(), Integer.MAX_VALUE).size() == mine.size()
+                    && MicroBlog.latest(oldest.getAuthor(), 1).get(0).getTime() == mine.get(0).getTime()
+                    && MicroBlog.newestFirst(oldest.getAuthor()).hasNext();
+        }
+        assert MicroBlog.latest("nessuno", 5).isEmpty() && MicroBlog.repOk();
+
         /* leggo la lista di parole da cercare all'interno dei post (sempre dal test) */
         List<String> someWords = new ArrayList<String>();
-        while (s.hasNext()) {
-            someWords.add(s.nextLine());
+        String word;
+        while ((word = s.nextLine()) != null) {
+            someWords.add(word);
         }
         s.close();
 
@@ -191,47 +326,263 @@ class Test {
         }
         System.out.println("]");
 
+        /*  ricerca per sottostringhe: ogni post che contiene una delle parole
+            la contiene anche come sottostringa, quindi la ricerca sull'indice
+            deve restituire un sottoinsieme del risultato */
+        List<Post> bySubstring = MicroBlog.containing(someWords, true);
+        System.out.println("MicroBlog.containing(words, true) = \n[");
+        for (Post p : bySubstring) {
+            System.out.print(p);
+        }
+        System.out.println("]");
+        assert bySubstring.containsAll(MicroBlog.containing(someWords));
+
+        /*  ricarico i post di pList, riscritti nel formato del file, in una nuova rete
+            a lotti di 3 post: i post inseriti sono quelli di pList (con nuovi id) */
+        StringBuilder file = new StringBuilder();
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("dd-MM-uuuu HH:mm").withZone(ZoneId.systemDefault());
+        for (Post p : pList) {
+            file.append(p.getAuthor()).append('\n').append(p.getText()).append('\n')
+                    .append(fmt.format(Instant.ofEpochMilli(p.getTime()))).append('\n');
+        }
+        // un post con una data inesistente e uno senza la riga della data
+        file.append("Autore\nData sbagliata\n19-13-2020 19:17\nfine\nAutore\nIncompleto\n");
+        SocialNetwork loaded = new SocialNetwork();
+        List<Exception> errors = new ArrayList<Exception>();
+        PostLoader loader = new PostLoader(Channels.newChannel(
+                new ByteArrayInputStream(file.toString().getBytes(StandardCharsets.UTF_8))));
+        int n = loader.loadPosts(loaded, 3, errors::add);
+        assert n == pList.size() && loaded.getPosts().size() == n && loaded.repOk();
+        for (Post p : pList) {
+            assert loaded.writtenBy(p.getAuthor()).size() == MicroBlog.writtenBy(p.getAuthor()).size();
+        }
+        assert errors.size() == 1 && ((MalformedPostException) errors.get(0)).getLine() == 3 * pList.size() + 3;
+        // dopo la riga fine la sezione successiva contiene un post incompleto
+        try {
+            loader.nextPost();
+            assert false;
+        } catch (MalformedPostException ex) {
+            assert ex.getLine() == loader.lineNumber();
+        } catch (TextOverflowException ex) {
+            assert false;
+        }
+        loader.close();
+
         // creo un'istanza del social moderato
         ModeratedSocialNetwork mnet = new ModeratedSocialNetwork(pList);
         System.out.print("***Social moderato inizializzato***\n[\n");
         System.out.println("badwords: " + ModeratedSocialNetwork.getBadwords().toString());
         System.out.println(mnet.toString());
         System.out.println("]\nI post segnalati sono:\n" + mnet.getOffensive().toString());
-    }
 
-    /* per leggere post secondo il loro formato */
-    public static ArrayList<Post> PostReader(Scanner scan) {
+        /*  home timeline: Lettore segue Autore dopo il like, quindi riceve i post
+            successivi di Autore; con soglia 0 i post di Autore vengono letti al momento,
+            con la stessa regola: solo quelli successivi al like, senza ripetere quelli già ricevuti */
+        SocialNetwork home = new SocialNetwork();
+        Post first = home.publish("Autore", "primo", new Date());
+        home.likePost(first.getId(), "Lettore");
+        Post second = home.publish("Autore", "secondo", new Date());
+        Post other = home.publish("Altro", "non seguito", new Date());
+        assert home.homeTimeline("Lettore", Long.MAX_VALUE, 10).getPosts().equals(List.of(second))
+                && home.homeTimeline("Autore", Long.MAX_VALUE, 10).isEmpty();
+        home.setFanOutThreshold(0);
+        Post third = home.publish("Autore", "terzo", new Date());
+        PostPage feed = home.homeTimeline("Lettore", Long.MAX_VALUE, 1);
+        assert feed.getPosts().equals(List.of(third));
+        feed = home.homeTimeline("Lettore", feed.getNext(), 1);
+        assert feed.getPosts().equals(List.of(second)) && home.homeTimeline("Lettore", feed.getNext(), 1).isEmpty();
+        home.rmPost(second.getId());
+        assert home.homeTimeline("Lettore", Long.MAX_VALUE, 10).getPosts().equals(List.of(third)) && home.repOk();
+        // ora Lettore segue più autori di quelli letti al momento (solo Autore): il post di Altro precede il like
+        home.likePost(other.getId(), "Lettore");
+        assert home.homeTimeline("Lettore", Long.MAX_VALUE, 10).getPosts().equals(List.of(third));
+        // salvata e ricaricata, la rete mostra gli stessi post (letti al momento, con l'inizio del follow tradotto)
+        Path homeFile = Files.createTempFile("home", ".snap");
+        try {
+            home.save(homeFile);
+            SocialNetwork restarted = SocialNetwork.load(homeFile);
+            List<Post> riletti = restarted.homeTimeline("Lettore", Long.MAX_VALUE, 10).getPosts();
+            assert riletti.size() == 1 && riletti.get(0).getId().equals(third.getId()) && restarted.repOk();
+        } finally {
+            Files.deleteIfExists(homeFile);
+        }
+        // rimosso il post a cui aveva messo like, Lettore non segue più Autore e i suoi post spariscono;
+        // rimosso l'ultimo post letto al momento, Autore non viene più letto
+        home.rmPost(first.getId());
+        assert home.homeTimeline("Lettore", Long.MAX_VALUE, 10).isEmpty();
+        home.rmPost(third.getId());
+        assert home.repOk();
+        // una rete costruita da una lista mostra i post degli autori seguiti, senza timeline inviate
+        SocialNetwork built = new SocialNetwork(pList);
+        for (String u : built.getFollowing().keySet()) {
+            Set<String> seguiti = built.getFollowing().get(u);
+            List<Post> attesi = new ArrayList<Post>();
+            for (Post p : built.getPosts()) {
+                if (seguiti.contains(p.getAuthor()))
+                    attesi.add(0, p);
+            }
+            assert built.homeTimeline(u, Long.MAX_VALUE, attesi.size() + 1).getPosts().equals(attesi);
+        }
 
-        /* creo una lista di Post a cui aggiungo tutti i post letti tramite lo Scanner */
-        ArrayList<Post> pList = new ArrayList<Post>();
-        Post p = null;
+        /* la timeline tiene solo gli ultimi post, in ordine anche se arrivano invertiti */
+        HomeTimeline ring = new HomeTimeline(4);
+        for (long seq : new long[] { 1, 3, 2, 6, 5, 4, 0 }) {
+            ring.push(seq);
+        }
+        assert ring.size() == 4 && Arrays.equals(ring.before(Long.MAX_VALUE, 10), new long[] { 6, 5, 4, 3 })
+                && Arrays.equals(ring.before(5, 1), new long[] { 4 });
 
-        String auth, text;
-        Date dt = new Date();
-        // legge una lista di post fino alla stringa fine
-        while (!scan.hasNext("fine")) {
-            auth = scan.nextLine();
-            text = scan.nextLine(); // per semplicità non sono consentite \n nel testo
+        /* salvo e ricarico le reti: devono risultare uguali, con gli stessi post e segnalati */
+        Path snapshot = Files.createTempFile("microblog", ".snap");
+        try {
+            MicroBlog.save(snapshot);
+            SocialNetwork reloaded = SocialNetwork.load(snapshot);
+            assert reloaded.equals(MicroBlog) && MicroBlog.equals(reloaded) && reloaded.repOk()
+                    && reloaded.fingerprint() == MicroBlog.fingerprint();
+            assert new HashSet<String>(reloaded.influencers()).equals(new HashSet<String>(MicroBlog.influencers()))
+                    && reloaded.topInfluencers(3).equals(MicroBlog.topInfluencers(3));
+            List<Post> before = MicroBlog.getPosts(), after = reloaded.getPosts();
+            for (i = 0; i < before.size(); i++) {
+                Post p = before.get(i), q = after.get(i);
+                assert p.getId().equals(q.getId()) && p.getTime() == q.getTime() && p.getAuthor().equals(q.getAuthor())
+                        && p.getText().equals(q.getText()) && p.getLikes().equals(q.getLikes());
+            }
+            mnet.save(snapshot);
+            ModeratedSocialNetwork mreloaded = ModeratedSocialNetwork.load(snapshot);
+            assert mreloaded.equals(mnet) && mreloaded.getOffensive().equals(mnet.getOffensive());
+            // da una rete non moderata i post offensivi vengono cercati di nuovo
+            MicroBlog.save(snapshot);
+            assert ModeratedSocialNetwork.load(snapshot).getOffensive().equals(mnet.getOffensive());
+            // una scrittura interrotta prima di commit non tocca il salvataggio precedente
+            byte[] saved = Files.readAllBytes(snapshot);
+            try (Snapshot.Writer partial = new Snapshot.Writer(snapshot)) {
+                partial.writeInt(0);
+            }
+            assert Arrays.equals(Files.readAllBytes(snapshot), saved);
+            // un file che non è un salvataggio viene rifiutato (e il canale chiuso)
+            Path garbage = Files.createTempFile("microblog", ".bad");
+            try {
+                Files.write(garbage, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+                try {
+                    SocialNetwork.load(garbage);
+                    assert false;
+                } catch (IOException ex) {
+                }
+            } finally {
+                Files.delete(garbage);
+            }
+            /*  in una nuova esecuzione l'allocatore riparte da 0 (lo simulo con un allocatore
+                nuovo): dopo load publish non deve assegnare un id già ricaricato */
+            Post.setIdAllocator(new BlockIdAllocator());
+            SocialNetwork restarted = SocialNetwork.load(snapshot);
+            restarted.publish("Nuovo", "dopo il riavvio", new Date());
+            assert restarted.getPosts().size() == MicroBlog.getPosts().size() + 1 && restarted.repOk();
 
-            /* legge il timestamp nel formato indicato,
-            altrimenti solleva un'eccezione di parsing */
+            /*  registro delle modifiche: metà dei post viene inserita prima di checkpoint e
+                metà dopo, poi aggiungo dei like e rimuovo un post. La rete ricaricata dal
+                file salvato, a cui riapplico il registro, deve risultare uguale */
+            Path wal = Files.createTempFile("microblog", ".log");
             try {
-                dt = new SimpleDateFormat("dd-mm-yyyy hh:mm").parse(scan.nextLine());
-            } catch (ParseException ex) {
-                System.out.println("Caught: " + ex);
+                SocialNetwork logged = new SocialNetwork();
+                MutationLog log = new MutationLog(wal, MutationLog.Durability.GROUP, 5);
+                logged.setLog(log);
+                List<Post> copies = new ArrayList<Post>();
+                for (Post p : pList) {
+                    copies.add(new Post(p.getAuthor(), p.getText(), new Date(p.getTime())));
+                }
+                for (i = 0; i < copies.size(); i++) {
+                    if (i == copies.size() / 2)
+                        logged.checkpoint(snapshot);
+                    logged.addPost(copies.get(i));
+                }
+                for (Post p : copies) {
+                    if (!p.getAuthor().equals("Lettore"))
+                        logged.likePost(p.getId(), "Lettore");
+                }
+                if (copies.size() > 0)
+                    logged.rmPost(copies.get(0).getId());
+                // un post successivo ai like: arriva nella home timeline di Lettore
+                Post fresh = copies.size() > 1 ? logged.publish(copies.get(1).getAuthor(), "dopo i like", new Date()) : null;
+                log.close();
+                // con il registro chiuso le operazioni falliscono prima di modificare la rete
+                long print = logged.fingerprint();
+                try {
+                    logged.publish("Nuovo", "non registrato", new Date());
+                    assert false;
+                } catch (IllegalStateException ex) {
+                }
+                if (copies.size() > 1) {
+                    try {
+                        logged.rmPost(copies.get(1).getId());
+                        assert false;
+                    } catch (IllegalStateException ex) {
+                    }
+                }
+                assert logged.fingerprint() == print
+                        && logged.getPosts().size() == Math.max(0, copies.size() - 1) + (fresh != null ? 1 : 0);
+                // come dopo un riavvio: i post riapplicati non devono far riassegnare i loro id
+                Post.setIdAllocator(new BlockIdAllocator());
+                SocialNetwork recovered = copies.size() / 2 > 0 ? SocialNetwork.load(snapshot) : new SocialNetwork();
+                long replayed = MutationLog.replay(wal, recovered);
+                assert recovered.equals(logged) && logged.equals(recovered) && recovered.repOk();
+                // riapplicando il registro le home timeline si ricostruiscono uguali
+                for (String u : logged.getFollowing().keySet()) {
+                    List<Post> a = logged.homeTimeline(u, Long.MAX_VALUE, 20).getPosts();
+                    List<Post> b = recovered.homeTimeline(u, Long.MAX_VALUE, 20).getPosts();
+                    assert a.size() == b.size();
+                    for (int k = 0; k < a.size(); k++) {
+                        assert a.get(k).getId().equals(b.get(k).getId());
+                    }
+                }
+                assert fresh == null || fresh.getAuthor().equals("Lettore")
+                        || logged.homeTimeline("Lettore", Long.MAX_VALUE, 1).getPosts().equals(List.of(fresh));
+                System.out.println("Modifiche riapplicate dal registro: " + replayed);
+                Post later = recovered.publish("Nuovo", "dopo il registro", new Date());
+                assert recovered.getPosts().size() == logged.getPosts().size() + 1 && recovered.repOk()
+                        && logged.getPosts().stream().noneMatch(p -> p.getId().equals(later.getId()));
+
+                /*  il registro non svuotato si può riapplicare anche a uno stato salvato dopo
+                    le sue modifiche: i like e le rimozioni già contenuti non hanno effetto */
+                log = new MutationLog(wal, MutationLog.Durability.GROUP, 5);
+                logged.setLog(log);
+                logged.checkpoint(snapshot);
+                List<Post> left = logged.getPosts();
+                if (left.size() >= 2) {
+                    Post liked = left.get(left.size() - 1), dropped = left.get(0);
+                    if (!liked.getAuthor().equals("Altro"))
+                        logged.likePost(liked.getId(), "Altro");
+                    logged.rmPost(dropped.getId());
+                }
+                logged.save(snapshot);
+                log.close();
+                SocialNetwork newer = SocialNetwork.load(snapshot);
+                MutationLog.replay(wal, newer);
+                assert newer.equals(logged) && logged.equals(newer) && newer.repOk();
+            } finally {
+                Files.delete(wal);
             }
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
 
-            /* ho preparato i dati per creare un post: lo creo e se non solleva
-            eccezioni lo aggiungo alla lista e stampo il Post con il metodo
-            toString()*/
+    /* per leggere post secondo il loro formato */
+    public static ArrayList<Post> PostReader(PostLoader in) throws IOException {
+
+        /* creo una lista di Post a cui aggiungo tutti i post letti fino alla riga fine */
+        ArrayList<Post> pList = new ArrayList<Post>();
+        while (true) {
+            /* le righe non valide (ad esempio una data inesistente) sono segnalate
+            con il loro numero e il post viene saltato */
             try {
-                p = new Post(auth, text, dt);
+                Post p = in.nextPost();
+                if (p == null)
+                    break;
                 pList.add(p);
-            } catch (Exception ex) {
+            } catch (MalformedPostException | TextOverflowException ex) {
                 System.out.println("Caught: " + ex);
             }
         }
-        scan.skip("fine\n"); // salto la stringa fine
 
         /* se non ho post */
         if (pList.size() <= 0) {
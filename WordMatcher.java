@@ -0,0 +1,246 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+class WordMatcher {
+    /*
+    @overview:  WordMatcher è un tipo di dato astratto non modificabile che rappresenta
+                un automa (Aho-Corasick) costruito su una lista di parole: scandisce un
+                testo una sola volta, indipendentemente dal numero di parole, e riporta
+                quali parole vi compaiono come sottostringhe.
+                Elemento tipico: [word_0, ..., word_n-1]
+    */
+
+    /* variabili d'istanza (private) */
+    private final String[] words;
+    // transizioni del nodo i: keys[i] è ordinato e next[i][j] è il nodo raggiunto leggendo keys[i][j]
+    private final char[][] keys;
+    private final int[][] next;
+    // collegamento di fallimento (suffisso proprio più lungo presente nel trie)
+    private final int[] fail;
+    // indici delle parole riconosciute nel nodo i (anche tramite i collegamenti di fallimento)
+    private final int[][] out;
+    // minimo di out[i], -1 se out[i] è vuoto
+    private final int[] minOut;
+
+    // automi già costruiti, per riusarli quando la stessa lista di parole viene richiesta di nuovo
+    private static final int CACHE_SIZE = 32;
+    private static final Map<List<String>, WordMatcher> cache = new LinkedHashMap<List<String>, WordMatcher>(
+            CACHE_SIZE, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<List<String>, WordMatcher> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /*
+    Funzione di astrazione
+    AF(x) = [x.words[0], ..., x.words[x.words.length - 1]]
+
+    Invariante di rappresentazione
+    IR(x) = x.words != null && ∀ i. 0 <= i < x.words.length && x.words[i] != null
+            && il nodo 0 è la radice del trie delle parole
+            && ∀ n. 0 <= n < x.keys.length
+                && x.keys[n] è ordinato && x.keys[n].length == x.next[n].length
+                && x.out[n] = {k : x.words[k] è suffisso della stringa che etichetta n}
+                && x.minOut[n] = min(x.out[n]) (-1 se x.out[n] = ∅)
+    */
+
+    /*
+    @requires:  ws != null && (∀ i. 0 <= i < ws.size() && ws.get(i) != null)
+    @throws:    Se ws == null o contiene null solleva NullPointerException
+    @effects:   Costruisce l'automa che riconosce le parole di ws
+    */
+    WordMatcher(List<String> ws) throws NullPointerException {
+        this.words = ws.toArray(new String[0]);
+        // costruisco il trie con mappe ordinate, poi lo compatto in array
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>();
+        trie.add(new TreeMap<Character, Integer>());
+        ends.add(new ArrayList<Integer>());
+        for (int k = 0; k < this.words.length; k++) {
+            int node = 0;
+            for (char c : this.words[k].toCharArray()) {
+                Integer child = trie.get(node).get(c);
+                if (child == null) {
+                    child = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    ends.add(new ArrayList<Integer>());
+                    trie.get(node).put(c, child);
+                }
+                node = child;
+            }
+            ends.get(node).add(k);
+        }
+        int n = trie.size();
+        this.keys = new char[n][];
+        this.next = new int[n][];
+        this.fail = new int[n];
+        this.out = new int[n][];
+        this.minOut = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.keys[i] = new char[trie.get(i).size()];
+            this.next[i] = new int[trie.get(i).size()];
+            int j = 0;
+            for (Map.Entry<Character, Integer> e : trie.get(i).entrySet()) {
+                this.keys[i][j] = e.getKey();
+                this.next[i][j] = e.getValue();
+                j++;
+            }
+        }
+        // visita in ampiezza: il fallimento di un nodo è calcolato dopo quello del padre
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        this.out[0] = toArray(ends.get(0), new int[0]);
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int j = 0; j < this.keys[node].length; j++) {
+                int child = this.next[node][j];
+                int f = 0;
+                if (node != 0) {
+                    f = step(this.fail[node], this.keys[node][j]);
+                }
+                this.fail[child] = f;
+                this.out[child] = toArray(ends.get(child), this.out[f]);
+                queue.add(child);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int min = -1;
+            for (int k : this.out[i]) {
+                if (min == -1 || k < min)
+                    min = k;
+            }
+            this.minOut[i] = min;
+        }
+    }
+
+    /*
+    Ritorna l'automa per la lista ws, riusando quello già costruito se la stessa
+    lista è stata richiesta di recente
+
+    @requires:  ws != null && (∀ i. 0 <= i < ws.size() && ws.get(i) != null)
+    @throws:    Se ws == null o contiene null solleva NullPointerException
+    @effects:   Ritorna un WordMatcher w con AF(w) = ws
+    */
+    static WordMatcher compile(List<String> ws) throws NullPointerException {
+        // List.copyOf solleva NullPointerException se ws o uno dei suoi elementi è null
+        List<String> key = List.copyOf(ws);
+        synchronized (cache) {
+            WordMatcher m = cache.get(key);
+            if (m == null) {
+                m = new WordMatcher(key);
+                cache.put(key, m);
+            }
+            return m;
+        }
+    }
+
+    // unisce gli indici di parole che terminano nel nodo con quelli del suo fallimento
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        int[] res = new int[own.size() + inherited.length];
+        int i = 0;
+        for (int k : own) {
+            res[i++] = k;
+        }
+        System.arraycopy(inherited, 0, res, i, inherited.length);
+        return res;
+    }
+
+    // transizione dell'automa (goto + fallimento) dal nodo node leggendo c
+    private int step(int node, char c) {
+        while (true) {
+            int j = Arrays.binarySearch(this.keys[node], c);
+            if (j >= 0)
+                return this.next[node][j];
+            if (node == 0)
+                return 0;
+            node = this.fail[node];
+        }
+    }
+
+    /*
+    @requires:  true
+    @effects:   Ritorna il numero di parole dell'automa
+    */
+    int size() {
+        return this.words.length;
+    }
+
+    /*
+    @requires:  0 <= i < size()
+    @throws:    Se i non è un indice valido solleva IndexOutOfBoundsException
+    @effects:   Ritorna la parola di indice i
+    */
+    String word(int i) {
+        return this.words[i];
+    }
+
+    /*
+    @requires:  text != null
+    @throws:    Se text == null solleva NullPointerException
+    @effects:   Ritorna min{k : text.contains(word(k))}, -1 se l'insieme è vuoto
+    */
+    int firstMatch(String text) throws NullPointerException {
+        int min = this.minOut[0];
+        int node = 0;
+        for (int i = 0; i < text.length() && min != 0; i++) {
+            node = step(node, text.charAt(i));
+            if (this.minOut[node] != -1 && (min == -1 || this.minOut[node] < min))
+                min = this.minOut[node];
+        }
+        return min;
+    }
+
+    /*
+    @requires:  text != null
+    @throws:    Se text == null solleva NullPointerException
+    @effects:   Ritorna l'insieme {k : text.contains(word(k))}
+    */
+    BitSet matches(String text) throws NullPointerException {
+        BitSet hits = new BitSet(this.words.length);
+        for (int k : this.out[0]) {
+            hits.set(k);
+        }
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, text.charAt(i));
+            for (int k : this.out[node]) {
+                hits.set(k);
+            }
+        }
+        return hits;
+    }
+
+    /*
+    Come la ricerca delle parole di text.split(String.valueOf(sep)), ma con
+    una sola scansione del testo
+
+    @requires:  text != null
+    @throws:    Se text == null solleva NullPointerException
+    @effects:   Ritorna true se e solo se
+                ∃ k. word(k) non vuota && word(k) non contiene sep
+                    && word(k) ∊ text.split(String.valueOf(sep))
+    */
+    boolean containsWord(String text, char sep) throws NullPointerException {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, text.charAt(i));
+            for (int k : this.out[node]) {
+                int len = this.words[k].length();
+                int start = i - len + 1;
+                if (len > 0
+                        && (start == 0 || text.charAt(start - 1) == sep)
+                        && (i + 1 == text.length() || text.charAt(i + 1) == sep)
+                        && this.words[k].indexOf(sep) < 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+};